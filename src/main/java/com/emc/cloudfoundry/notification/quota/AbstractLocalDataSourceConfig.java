@@ -1,11 +1,13 @@
 package com.emc.cloudfoundry.notification.quota;
 
 import org.apache.commons.dbcp.BasicDataSource;
+import org.springframework.core.env.Environment;
 
 public class AbstractLocalDataSourceConfig {
 
-    protected BasicDataSource createBasicDataSource(String jdbcUrl, String driverClass, String userName, String password) {
-        BasicDataSource dataSource = new BasicDataSource();
+    protected BasicDataSource createBasicDataSource(Environment environment, String jdbcUrl, String driverClass,
+            String userName, String password) {
+        BasicDataSource dataSource = new InstrumentedDataSource(environment, 8);
         dataSource.setUrl(jdbcUrl);
         dataSource.setDriverClassName(driverClass);
         dataSource.setUsername(userName);
@@ -0,0 +1,89 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import org.joda.time.DateTime;
+import org.springframework.core.env.Environment;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+
+import com.sendgrid.SendGrid;
+import com.sendgrid.SendGridException;
+
+/**
+ * Base class for NotificationService implementations that deliver notifications by email.
+ * Mail goes out through SendGrid when no SMTP host is configured and through the JavaMail API otherwise;
+ * subclasses decide when a notification is due and keep track of what has been sent.
+ */
+public abstract class AbstractMailNotificationService implements NotificationService {
+
+	private final MailSender mailSender;
+
+	private final SendGrid sendGrid;
+
+	private final boolean useSendGrid;
+
+	private final String subject;
+
+	private final int maxInterval;
+
+	protected final CycleEvents cycleEvents;
+
+	protected AbstractMailNotificationService(Environment environment, MailSender mailSender, SendGrid sendGrid,
+			CycleEvents cycleEvents) {
+		this.mailSender = mailSender;
+		this.cycleEvents = cycleEvents;
+		this.sendGrid = sendGrid;
+		this.useSendGrid = (environment.getProperty("mail.host").equals("")) ? true : false;
+		this.subject = environment.getProperty("mail.subject");
+		this.maxInterval = environment.getProperty("notification.maxInterval", Integer.class, 168);
+		if (maxInterval <= 0) {
+			throw new NotificationException("notification.maxInterval must be positive");
+		}
+	}
+
+	/**
+	 * Decides whether a notification for the given band is due: when none was sent yet, when the org has climbed
+	 * into a higher band than the last notification was sent for, or as a reminder when that was
+	 * notification.maxInterval hours ago.
+	 * @param lastSent when the last notification was sent, null if never
+	 * @param lastBand the band the last notification was sent for
+	 */
+	protected boolean isDue(DateTime lastSent, int lastBand, int band) {
+		return lastSent == null || band > lastBand || lastSent.plusHours(maxInterval).isBeforeNow();
+	}
+
+	/**
+	 * Delivers a single mail about the given org.
+	 * @throws NotificationException if SendGrid rejects the mail
+	 */
+	protected void deliver(String orgGuid, String from, String to, String text) {
+		CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.SEND);
+		if (useSendGrid) {
+			try {
+				sendGrid.send(createSendGridMessage(from, to, text));
+			} catch (SendGridException e) {
+				throw new NotificationException(e.getMessage(), e.getCause());
+			}
+		} else {
+			mailSender.send(createMailMessage(from, to, text));
+		}
+		phase.end(null, orgGuid, 1, text.length());
+	}
+
+	private SimpleMailMessage createMailMessage(String from, String to, String text) {
+		SimpleMailMessage mailMessage = new SimpleMailMessage();
+		mailMessage.setFrom(from);
+		mailMessage.setTo(to);
+		mailMessage.setSubject(subject);
+		mailMessage.setText(text);
+		return mailMessage;
+	}
+
+	private SendGrid.Email createSendGridMessage(String from, String to, String text) {
+		SendGrid.Email mailMessage = new SendGrid.Email();
+		mailMessage.setFrom(from);
+		mailMessage.setTo(new String[] { to });
+		mailMessage.setSubject(subject);
+		mailMessage.setText(text);
+		return mailMessage;
+	}
+}
@@ -0,0 +1,211 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.web.client.HttpStatusCodeException;
+import org.springframework.web.client.ResourceAccessException;
+
+/**
+ * Limits the number of concurrent calls to a remote API, adjusting the limit by additive increase and
+ * multiplicative decrease (AIMD). Every call that completes within the latency target while the limit is in use
+ * raises the limit by 1/limit, so by less than one per round of concurrent calls; a call that is throttled (429),
+ * fails on the server (5xx), cannot connect or exceeds the latency target cuts the limit by the backoff ratio, at
+ * most once per latency target so a burst of failing calls counts as one signal.
+ * Calls over the limit wait for a permit; the time they wait is reported as the queueing delay.
+ * Added to a rest template as an interceptor, the limiter holds a permit for every single HTTP request; the
+ * latency it measures ends when the response headers arrive.
+ */
+public class AdaptiveConcurrencyLimiter implements ClientHttpRequestInterceptor {
+
+	private static final double QUEUEING_DELAY_WEIGHT = 0.1;
+
+	private final String name;
+
+	private final int minLimit;
+
+	private final int maxLimit;
+
+	private final long latencyTargetNanos;
+
+	private final double backoffRatio;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition permitReleased = lock.newCondition();
+
+	private double limit;
+
+	private int inFlight;
+
+	private long lastDecrease;
+
+	private double queueingDelayNanos;
+
+	private long drops;
+
+	public AdaptiveConcurrencyLimiter(String name, int initialLimit, int minLimit, int maxLimit, long latencyTargetMillis,
+			double backoffRatio) {
+		if (minLimit < 1 || maxLimit < minLimit || initialLimit < minLimit || initialLimit > maxLimit) {
+			throw new NotificationException(name + ": limits must satisfy 1 <= min <= initial <= max");
+		}
+		if (backoffRatio <= 0 || backoffRatio >= 1) {
+			throw new NotificationException(name + ": the backoff ratio must be between 0 and 1");
+		}
+		this.name = name;
+		this.minLimit = minLimit;
+		this.maxLimit = maxLimit;
+		this.latencyTargetNanos = TimeUnit.MILLISECONDS.toNanos(latencyTargetMillis);
+		this.backoffRatio = backoffRatio;
+		this.limit = initialLimit;
+		this.lastDecrease = System.nanoTime() - latencyTargetNanos;
+	}
+
+	@Override
+	public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+			throws IOException {
+		acquire();
+		long start = System.nanoTime();
+		boolean dropped = false;
+		try {
+			ClientHttpResponse response = execution.execute(request, body);
+			int status = response.getRawStatusCode();
+			dropped = status == 429 || status >= 500;
+			return response;
+		} catch (IOException e) {
+			dropped = true;
+			throw e;
+		} finally {
+			release(System.nanoTime() - start, dropped);
+		}
+	}
+
+	/**
+	 * Returns a proxy that runs every call of the given interface through this limiter, for clients whose rest
+	 * template is out of reach; a call then holds its permit for all the requests it makes.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T limit(Class<T> type, final T target) {
+		return (T) Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+			@Override
+			public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+				if (method.getDeclaringClass() == Object.class) {
+					return method.invoke(target, args);
+				}
+				acquire();
+				long start = System.nanoTime();
+				boolean dropped = false;
+				try {
+					return method.invoke(target, args);
+				} catch (InvocationTargetException e) {
+					dropped = isOverloaded(e.getCause());
+					throw e.getCause();
+				} finally {
+					release(System.nanoTime() - start, dropped);
+				}
+			}
+		});
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The exponentially weighted average time calls waited for a permit, in milliseconds.
+	 */
+	public double getQueueingDelay() {
+		lock.lock();
+		try {
+			return queueingDelayNanos / TimeUnit.MILLISECONDS.toNanos(1);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	public long getDrops() {
+		lock.lock();
+		try {
+			return drops;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void acquire() {
+		long start = System.nanoTime();
+		lock.lock();
+		try {
+			while (inFlight >= (int) limit) {
+				permitReleased.await();
+			}
+			inFlight++;
+			queueingDelayNanos += QUEUEING_DELAY_WEIGHT * ((System.nanoTime() - start) - queueingDelayNanos);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NotificationException("Interrupted while waiting to call " + name, e);
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	void release(long latencyNanos, boolean dropped) {
+		lock.lock();
+		try {
+			inFlight--;
+			if (dropped || latencyNanos > latencyTargetNanos) {
+				long now = System.nanoTime();
+				if (now - lastDecrease >= latencyTargetNanos) {
+					limit = Math.max(minLimit, limit * backoffRatio);
+					lastDecrease = now;
+				}
+				if (dropped) {
+					drops++;
+				}
+			} else if (inFlight + 1 >= limit / 2) {
+				// only grow a limit that is actually being used
+				limit = Math.min(maxLimit, limit + 1 / limit);
+			}
+			permitReleased.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private boolean isOverloaded(Throwable e) {
+		if (e instanceof HttpStatusCodeException) {
+			int status = ((HttpStatusCodeException) e).getStatusCode().value();
+			return status == 429 || status >= 500;
+		}
+		return e instanceof ResourceAccessException || e instanceof IOException;
+	}
+
+}
@@ -1,27 +1,21 @@
 package com.emc.cloudfoundry.notification.quota;
 
-import java.net.MalformedURLException;
-import java.net.URI;
-import java.net.URISyntaxException;
-import java.net.URL;
-import java.text.DecimalFormat;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+
+import javax.annotation.PostConstruct;
 
-import org.cloudfoundry.client.lib.CloudCredentials;
-import org.cloudfoundry.client.lib.CloudFoundryClient;
 import org.cloudfoundry.client.lib.CloudFoundryOperations;
-import org.cloudfoundry.client.lib.HttpProxyConfiguration;
-import org.cloudfoundry.client.lib.RestLogCallback;
-import org.cloudfoundry.client.lib.RestLogEntry;
 import org.cloudfoundry.client.lib.domain.CloudApplication;
 import org.cloudfoundry.client.lib.domain.CloudOrganization;
 import org.cloudfoundry.client.lib.domain.CloudSpace;
 import org.cloudfoundry.client.lib.domain.CloudUser;
-import org.cloudfoundry.client.lib.tokens.TokensFile;
-import org.cloudfoundry.identity.uaa.api.UaaConnectionFactory;
-import org.cloudfoundry.identity.uaa.api.common.UaaConnection;
 import org.cloudfoundry.identity.uaa.api.common.model.expr.FilterRequest;
 import org.cloudfoundry.identity.uaa.api.common.model.expr.FilterRequestBuilder;
 import org.cloudfoundry.identity.uaa.api.user.UaaUserOperations;
@@ -29,16 +23,11 @@ import org.cloudfoundry.identity.uaa.rest.SearchResults;
 import org.cloudfoundry.identity.uaa.scim.ScimUser;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
-import org.springframework.context.ApplicationContext;
-import org.springframework.core.env.Environment;
+import org.springframework.context.annotation.Lazy;
 import org.springframework.scheduling.annotation.Scheduled;
-import org.springframework.security.oauth2.client.token.grant.password.ResourceOwnerPasswordResourceDetails;
-import org.springframework.security.oauth2.common.AuthenticationScheme;
-import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
-import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
-import org.springframework.security.oauth2.common.OAuth2AccessToken;
 import org.stringtemplate.v4.ST;
 import org.stringtemplate.v4.STGroup;
 import org.stringtemplate.v4.STRawGroupDir;
@@ -46,104 +35,268 @@ import org.stringtemplate.v4.STRawGroupDir;
 @SpringBootApplication
 public class Application {
 
-	@Value("#{environment.PCF_TARGET}")
-	private String target;
-
-	@Value("#{environment.PCF_UAA_TARGET}")
-	private String uaaTarget;
-
-	@Value("#{environment.PCF_SPACE}")
-	private String spaceName;
-
-	@Value("#{environment.PCF_ORG}")
-	private String orgName;
-
-	@Value("#{environment.PCF_USERNAME}")
-	private String username;
-
-	@Value("#{environment.PCF_PASSWORD}")
-	private String password;
-
-	@Value("#{environment.PCF_UAA_ACCESS_TOKEN}")
-	private String accessToken;
-
-	@Value("#{environment.PCF_UAA_REFRESH_TOKEN}")
-	private String refreshToken;
+	@Value("${environment.DEBUG:false}")
+	private boolean debug;
 
-	@Value("#{environment.PCF_UAA_CLIENT_ID}")
-	private String clientID;
+	@Autowired
+	private Foundations foundations;
 
-	@Value("#{environment.PCF_UAA_CLIENT_SECRET}")
-	private String clientSecret;
+	@Autowired
+	private UsageSnapshots usageSnapshots;
 
-	@Value("#{environment.SKIP_SSL_VALIDATION}")
-	private boolean trustSelfSignedCerts;
+	@Autowired
+	private UsageBands usageBands;
 
-	@Value("${environment.VERBOSE:false}")
-	private boolean verbose;
+	@Autowired
+	private CycleEvents cycleEvents;
 
-	@Value("${environment.DEBUG:false}")
-	private boolean debug;
+	@Autowired
+	private OrgOwners orgOwners;
 
 	@Autowired
-	private Environment environment;
+	private Pipeline pipeline;
 
 	@Autowired
+	@Lazy
 	private NotificationService notificationService;
 
+	private final STGroup templates = new STRawGroupDir("templates");
+
+	private final RecordedBands recordedBands = new RecordedBands();
+
 	public static void main(String[] args) {
-		ApplicationContext context = new SpringApplicationBuilder(Application.class)
-				.initializers(new WebApplicationInitializer()).application().run(args);
+		createApplication(Boolean.parseBoolean(System.getenv("HEADLESS"))).run(args);
+	}
 
-		Application application = context.getBean(Application.class);
+	/**
+	 * Creates the application. A headless application runs without a servlet container and only eagerly
+	 * creates the beans that drive the polling cycle; everything else (JPA, mail) is created on first use.
+	 */
+	public static SpringApplication createApplication(boolean headless) {
+		SpringApplicationBuilder builder = new SpringApplicationBuilder(Application.class).web(!headless)
+				.initializers(new WebApplicationInitializer());
+		if (headless) {
+			builder.initializers(new HeadlessApplicationInitializer());
+		}
+		return builder.application();
+	}
 
-		application.validateArgs();
-		application.setupDebugLogging();
+	@PostConstruct
+	public void init() {
+		setupDebugLogging();
 	}
 
-	@Scheduled(initialDelay = 2000, fixedRateString = "${pollingFrequency}")
+	/**
+	 * Starts a quota check on every foundation. The checks run on the {@link PipelineStage#DISCOVER} stage, at most
+	 * one per foundation at a time; the orgs they find then pass through the measure, owner, render and deliver
+	 * stages shared by all foundations. A foundation only gets a few of the measure stage's slots, so its slow usage
+	 * calls do not hold up the measuring of the others, but a full owner, render or deliver stage holds up every
+	 * foundation.
+	 */
+	@Scheduled(initialDelayString = "${initialDelay:0}", fixedRateString = "${pollingFrequency}")
 	public void checkQuota() {
-		CloudFoundryOperations client = getCloudFoundryClient();
+		for (final Foundation foundation : foundations) {
+			foundation.submit(pipeline.get(PipelineStage.DISCOVER), new Runnable() {
+				@Override
+				public void run() {
+					checkQuota(foundation);
+				}
+			});
+		}
+	}
 
-		for (CloudOrganization organization : client.getOrganizations()) {
-			// Need to refetch an org to get all its values
-			CloudOrganization org = client.getOrgByName(organization.getName(), true);
+	/**
+	 * Checks the quotas of one foundation. Spaces are grouped by org and apps summed by space once per cycle, then
+	 * every org with a quota is measured on the {@link PipelineStage#MEASURE} stage, at most
+	 * {@link Pipeline#getMeasureSlotsPerFoundation()} at a time, the cycle waiting for a slot before it submits the
+	 * next one. The cycle waits for its orgs to be measured to publish their usage; the notifications of the orgs
+	 * over their threshold go on through the owner, render and deliver stages, and a full downstream stage holds up
+	 * the stages before it, this one included.
+	 * Apart from what it reports (the org and space usage, the log lines and the notifications) the loop over the
+	 * orgs allocates little more than a task per org.
+	 */
+	void checkQuota(Foundation foundation) {
+		long start = System.currentTimeMillis();
+		CycleEvents.Phase cycle = cycleEvents.begin(CyclePhase.CYCLE);
+		CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.SPACE_SCAN);
+		Map<UUID, List<CloudSpace>> spacesByOrg = groupSpacesByOrg(foundation.listSpaces());
+		List<CloudApplication> applications = foundation.listApplications();
+		Map<UUID, int[]> appUsageBySpace = measureApplications(applications);
+		phase.end(foundation.getName(), null, applications.size(), 0);
+
+		phase = cycleEvents.begin(CyclePhase.ORG_LISTING);
+		List<CloudOrganization> organizations = foundation.listOrganizations();
+		phase.end(foundation.getName(), null, organizations.size(), 0);
+		int withQuota = 0;
+		for (CloudOrganization org : organizations) {
 			if (org.getQuota() != null) {
-				STGroup g = new STRawGroupDir("templates");
-				ST notificationTemplate = g.getInstanceOf("notification");
-				notificationTemplate.add("from", "The PCF Ops Team");
-				UUID orgGuid = org.getMeta().getGuid();
-				int memoryLimit = Long.valueOf(org.getQuota().getMemoryLimit()).intValue();
-				int memoryUsed = Long.valueOf(client.getMemoryUsageForOrg(orgGuid).toString()).intValue();
-				int percentUsed = 100 * memoryUsed / memoryLimit;
-				out("Org " + org.getName() + " is using " + formatMBytes(memoryUsed) + " of "
-						+ formatMBytes(memoryLimit) + ".");
-				out("That is " + percentUsed + "% of their quota.");
-				int quotaMemoryLimit = memoryLimit;
-				if (percentUsed >= Integer.valueOf(environment.getProperty("threshold"))) {
-					notificationTemplate.add("orgName", org.getName());
-					notificationTemplate.add("memoryUsed", formatMBytes(memoryUsed));
-					notificationTemplate.add("quotaMemoryLimit", formatMBytes(memoryLimit));
-					notificationTemplate.add("percentUsed", percentUsed);
-					List<ScimUser> owners = this.findOrgOwners(org, notificationTemplate);
-					ST spaceMessageTemplate = createSpaceUsageMessage(client, org, quotaMemoryLimit);
-					notificationTemplate.add("spaceQuotaBody", spaceMessageTemplate.render());
-					for (ScimUser owner : owners) {
-						ArrayList<String> ownerEmails = new ArrayList<String>();
-						ownerEmails.add(owner.getPrimaryEmail());
-						notificationService.sendNotification(orgGuid.toString(), owner.getId(), "pcfops@emc.com", ownerEmails, notificationTemplate.render());
-					}
+				withQuota++;
+			}
+		}
+		Measurement measurement = new Measurement(foundation, spacesByOrg, appUsageBySpace, withQuota,
+				pipeline.getMeasureSlotsPerFoundation());
+		int index = 0;
+		for (CloudOrganization org : organizations) {
+			if (org.getQuota() != null) {
+				measurement.acquireSlot();
+				if (!pipeline.submit(PipelineStage.MEASURE, new MeasureTask(measurement, org, index++))) {
+					// discarded, so not waited for
+					measurement.slots.release();
+					measurement.measured.countDown();
 				}
 			}
 		}
+		List<OrgUsage> orgUsages = measurement.await();
+		Map<String, Integer> recoveredBands = new HashMap<String, Integer>();
+		for (OrgUsage orgUsage : orgUsages) {
+			int recoveredBand = usageBands.recoveredBand(orgUsage.getPercentUsed());
+			if (recordedBands.recovering(orgUsage.getGuid(), recoveredBand)) {
+				recoveredBands.put(orgUsage.getGuid(), recoveredBand);
+			}
+		}
+		if (!recoveredBands.isEmpty()) {
+			try {
+				notificationService.recordRecovery(recoveredBands);
+			} catch (RuntimeException e) {
+				recordedBands.forget(recoveredBands.keySet());
+				throw e;
+			}
+		}
+		usageSnapshots.publish(foundation.getName(), orgUsages);
+		cycle.end(foundation.getName(), null, orgUsages.size(), 0);
+		cycleEvents.cycleCompleted(foundation.getName(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * Measures the memory usage of an org and its spaces and hands it on to the owner stage if it is over its
+	 * threshold.
+	 */
+	private OrgUsage measureOrg(Measurement measurement, CloudOrganization org) {
+		Foundation foundation = measurement.foundation;
+		UUID orgGuid = org.getMeta().getGuid();
+		String guid = orgGuid.toString();
+		int memoryLimit = (int) org.getQuota().getMemoryLimit();
+		int memoryUsed = measureMemory(foundation, orgGuid);
+		int percentUsed = 100 * memoryUsed / memoryLimit;
+		out("Org " + org.getName() + " on " + foundation.getName() + " is using " + formatMBytes(memoryUsed) + " of "
+				+ formatMBytes(memoryLimit) + ".");
+		out("That is " + percentUsed + "% of their quota.");
+		CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.SPACE_SCAN);
+		List<SpaceUsage> spaceUsages = measureSpaces(memoryLimit, measurement.spacesByOrg.get(orgGuid),
+				measurement.appUsageBySpace);
+		phase.end(foundation.getName(), guid, spaceUsages.size(), 0);
+		OrgUsage orgUsage = new OrgUsage(foundation.getName(), guid, org.getName(), memoryUsed, memoryLimit,
+				percentUsed, spaceUsages);
+		int band = usageBands.band(percentUsed);
+		if (band > 0) {
+			recordedBands.notifying(guid, band);
+			pipeline.submit(PipelineStage.RESOLVE_OWNERS, new ResolveOwnersTask(foundation, orgUsage, band));
+		}
+		return orgUsage;
+	}
+
+	/**
+	 * Evaluates a single org right away instead of waiting for the next quota check: fetches its quota and memory
+	 * usage and, when dispatch is set, notifies its managers if that is due, exactly like a quota check would.
+	 * The space breakdown is not measured, as that would scan every space and app of the foundation; the given
+	 * spaces of the latest quota check are reported instead.
+	 * @return the evaluation, null if the foundation has no org of that name and guid or the org has no quota
+	 */
+	public OrgEvaluation evaluateOrg(Foundation foundation, String orgGuid, String orgName, List<SpaceUsage> spaces,
+			boolean dispatch) {
+		CloudOrganization org = foundation.getCloudFoundryClient().getOrgByName(orgName, false);
+		if (org == null || !org.getMeta().getGuid().toString().equals(orgGuid) || org.getQuota() == null) {
+			return null;
+		}
+		int memoryLimit = (int) org.getQuota().getMemoryLimit();
+		int memoryUsed = measureMemory(foundation, org.getMeta().getGuid());
+		int percentUsed = 100 * memoryUsed / memoryLimit;
+		OrgUsage orgUsage = new OrgUsage(foundation.getName(), orgGuid, org.getName(), memoryUsed, memoryLimit,
+				percentUsed, spaces);
+		int band = usageBands.band(percentUsed);
+		if (dispatch) {
+			notifyOwners(foundation, orgUsage, band);
+		}
+		return new OrgEvaluation(orgUsage, band, dispatch && band > 0, System.currentTimeMillis());
+	}
+
+	private int measureMemory(Foundation foundation, UUID orgGuid) {
+		CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.USAGE);
+		int memoryUsed = foundation.getCloudFoundryClient().getMemoryUsageForOrg(orgGuid).intValue();
+		phase.end(foundation.getName(), orgGuid.toString(), 1, 0);
+		return memoryUsed;
+	}
+
+	/**
+	 * Sends the managers of an org in the given band the notification about its usage, unless the band is 0 or the
+	 * notification service finds it is not due. Runs the owner, render and deliver steps on the calling thread
+	 * rather than on their stages.
+	 */
+	private void notifyOwners(Foundation foundation, OrgUsage orgUsage, int band) {
+		if (band == 0) {
+			return;
+		}
+		recordedBands.notifying(orgUsage.getGuid(), band);
+		List<OrgOwner> owners = resolveOwners(foundation, orgUsage);
+		String message = render(orgUsage, owners);
+		for (OrgOwner owner : owners) {
+			if (owner.getEmail() != null) {
+				deliver(orgUsage, owner, message, band);
+			}
+		}
+	}
+
+	private List<OrgOwner> resolveOwners(Foundation foundation, OrgUsage orgUsage) {
+		CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.OWNER_LOOKUP);
+		List<OrgOwner> owners = this.findOrgOwners(foundation, UUID.fromString(orgUsage.getGuid()));
+		phase.end(foundation.getName(), orgUsage.getGuid(), owners.size(), 0);
+		return owners;
+	}
+
+	private String render(OrgUsage orgUsage, List<OrgOwner> owners) {
+		CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.RENDER);
+		ST notificationTemplate;
+		// the group compiles its templates on first use and is not safe for concurrent lookups
+		synchronized (templates) {
+			notificationTemplate = templates.getInstanceOf("notification");
+		}
+		notificationTemplate.add("from", "The PCF Ops Team");
+		notificationTemplate.add("orgName", orgUsage.getName());
+		notificationTemplate.add("memoryUsed", formatMBytes(orgUsage.getMemoryUsed()));
+		notificationTemplate.add("quotaMemoryLimit", formatMBytes(orgUsage.getMemoryLimit()));
+		notificationTemplate.add("percentUsed", orgUsage.getPercentUsed());
+		for (OrgOwner owner : owners) {
+			notificationTemplate.add("givenName", owner.getGivenName());
+		}
+		notificationTemplate.add("spaceQuotaBody", createSpaceUsageMessage(orgUsage.getSpaces()));
+		String message = notificationTemplate.render();
+		phase.end(orgUsage.getFoundation(), orgUsage.getGuid(), 1, message.length());
+		return message;
+	}
+
+	private void deliver(OrgUsage orgUsage, OrgOwner owner, String message, int band) {
+		notificationService.sendNotification(orgUsage.getGuid(), owner.getId(), "pcfops@emc.com", owner.getEmails(),
+				message, band);
+	}
+
+	/**
+	 * Returns the managers of the given org, from the {@link OrgOwners} cache when they were looked up recently.
+	 */
+	private List<OrgOwner> findOrgOwners(Foundation foundation, UUID orgGuid) {
+		List<OrgOwner> owners = orgOwners.get(orgGuid.toString());
+		if (owners == null) {
+			owners = lookupOrgOwners(foundation, orgGuid);
+			orgOwners.put(orgGuid.toString(), owners);
+		}
+		return owners;
 	}
 
-	private List<ScimUser> findOrgOwners(CloudOrganization org, ST notificationTemplate) {
-		CloudFoundryOperations client = getCloudFoundryClient();
-		UaaUserOperations uaaUserClient = getUaaUserClient();
+	private List<OrgOwner> lookupOrgOwners(Foundation foundation, UUID orgGuid) {
+		CloudFoundryOperations client = foundation.getCloudFoundryClient();
+		UaaUserOperations uaaUserClient = foundation.getUaaUserClient();
 
-		List<CloudUser> users = client.getOrgManagers(org.getMeta().getGuid());
-		List<ScimUser> orgManagers = new ArrayList<ScimUser>();
+		List<CloudUser> users = client.getOrgManagers(orgGuid);
+		List<OrgOwner> orgManagers = new ArrayList<OrgOwner>();
 		if (users != null) {
 			for (CloudUser user : users) {
 				out("Lookup user: '" + user.getMeta().getGuid().toString() + "' from UAA.");
@@ -157,10 +310,7 @@ public class Application {
 				}
 				if (results != null) {
 					ScimUser scimUser = results.getResources().iterator().next();
-					notificationTemplate.add("givenName", scimUser.getGivenName());
-					if (scimUser.getPrimaryEmail() != null) {
-						orgManagers.add(scimUser);
-					}
+					orgManagers.add(new OrgOwner(scimUser.getId(), scimUser.getPrimaryEmail(), scimUser.getGivenName()));
 				} else {
 					throw new NotificationException("Could not find user with guid: '" + user.getMeta().getGuid().toString() + "'");
 				}
@@ -172,27 +322,6 @@ public class Application {
 		return orgManagers;
 	}
 
-	private CloudFoundryOperations getCloudFoundryClient() {
-		CloudCredentials credentials = getCloudCredentials();
-
-		return getCloudFoundryClient(credentials);
-	}
-
-	private UaaUserOperations getUaaUserClient() {
-		URL uaaHost = getTargetURL(uaaTarget);
-		CloudCredentials cfCredentials = getCloudCredentials();
-		ResourceOwnerPasswordResourceDetails credentials = new ResourceOwnerPasswordResourceDetails();
-		credentials.setAccessTokenUri(uaaTarget + "/oauth/token");
-		credentials.setClientAuthenticationScheme(AuthenticationScheme.header);
-		credentials.setClientId(cfCredentials.getClientId());
-		credentials.setClientSecret(cfCredentials.getClientSecret());
-		credentials.setUsername(cfCredentials.getEmail());
-		credentials.setPassword(cfCredentials.getPassword());
-		UaaConnection connection = UaaConnectionFactory.getConnection(uaaHost, credentials);
-		UaaUserOperations operations = connection.userOperations();
-		return operations;
-	}
-
 	private void setupDebugLogging() {
 		if (debug) {
 			System.setProperty("org.apache.commons.logging.Log", "org.apache.commons.logging.impl.SimpleLog");
@@ -202,180 +331,291 @@ public class Application {
 		}
 	}
 
-	private CloudCredentials getCloudCredentials() {
-		CloudCredentials credentials;
-
-		if (username != null && password != null) {
-			if (clientID == null) {
-				credentials = new CloudCredentials(username, password);
-			} else {
-				credentials = new CloudCredentials(username, password, clientID, clientSecret);
+	/**
+	 * Sums the memory, apps and instances of the given applications by space guid.
+	 */
+	private Map<UUID, int[]> measureApplications(List<CloudApplication> applications) {
+		Map<UUID, int[]> appUsageBySpace = new HashMap<UUID, int[]>();
+		for (CloudApplication app : applications) {
+			UUID spaceGuid = app.getSpace().getMeta().getGuid();
+			int[] usage = appUsageBySpace.get(spaceGuid);
+			if (usage == null) {
+				usage = new int[3];
+				appUsageBySpace.put(spaceGuid, usage);
 			}
-		} else if (accessToken != null && refreshToken != null) {
-			DefaultOAuth2RefreshToken refresh = new DefaultOAuth2RefreshToken(refreshToken);
-			DefaultOAuth2AccessToken access = new DefaultOAuth2AccessToken(accessToken);
-			access.setRefreshToken(refresh);
+			int instances = app.getInstances();
+			usage[0] += instances * app.getMemory();
+			usage[1]++;
+			usage[2] += instances;
+		}
+		return appUsageBySpace;
+	}
 
-			if (clientID == null) {
-				credentials = new CloudCredentials(access);
-			} else {
-				credentials = new CloudCredentials(access, clientID, clientSecret);
+	/**
+	 * Groups the given spaces by the guid of their org.
+	 */
+	private Map<UUID, List<CloudSpace>> groupSpacesByOrg(List<CloudSpace> spaces) {
+		Map<UUID, List<CloudSpace>> spacesByOrg = new HashMap<UUID, List<CloudSpace>>();
+		for (CloudSpace space : spaces) {
+			UUID orgGuid = space.getOrganization().getMeta().getGuid();
+			List<CloudSpace> orgSpaces = spacesByOrg.get(orgGuid);
+			if (orgSpaces == null) {
+				orgSpaces = new ArrayList<CloudSpace>();
+				spacesByOrg.put(orgGuid, orgSpaces);
 			}
-		} else {
-			final TokensFile tokensFile = new TokensFile();
-			final OAuth2AccessToken token = tokensFile.retrieveToken(getTargetURI(target));
+			orgSpaces.add(space);
+		}
+		return spacesByOrg;
+	}
 
-			if (clientID == null) {
-				credentials = new CloudCredentials(token);
+	private List<SpaceUsage> measureSpaces(int quotaMemoryLimit, List<CloudSpace> orgSpaces,
+			Map<UUID, int[]> appUsageBySpace) {
+		if (orgSpaces == null) {
+			return Collections.emptyList();
+		}
+		List<SpaceUsage> spaceUsages = new ArrayList<SpaceUsage>(orgSpaces.size());
+		for (CloudSpace space : orgSpaces) {
+			int[] usage = appUsageBySpace.get(space.getMeta().getGuid());
+			if (usage == null) {
+				spaceUsages.add(new SpaceUsage(space.getName(), 0, 0, 0, 0));
 			} else {
-				credentials = new CloudCredentials(token, clientID, clientSecret);
+				spaceUsages.add(new SpaceUsage(space.getName(), usage[0], 100 * usage[0] / quotaMemoryLimit,
+						usage[1], usage[2]));
 			}
 		}
+		return spaceUsages;
+	}
 
-		return credentials;
+	private String createSpaceUsageMessage(List<SpaceUsage> spaceUsages) {
+		int appCount = 0;
+		int appInstanceCount = 0;
+		for (SpaceUsage space : spaceUsages) {
+			appCount += space.getApps();
+			appInstanceCount += space.getInstances();
+		}
+		StringBuilder messageBody = new StringBuilder(96 + 80 * spaceUsages.size());
+		messageBody.append("\nThere are ").append(appCount).append(" apps running inside this org with a total of ")
+				.append(appInstanceCount).append(" instances.\n\n");
+		for (SpaceUsage space : spaceUsages) {
+			messageBody.append("* Space ").append(space.getName()).append(" is using ").append(space.getMemoryUsed())
+					.append("M (").append(space.getPercentOfOrgQuota()).append("%) of the org's memory quota.\n");
+		}
+		return messageBody.toString();
 	}
 
-	private CloudFoundryClient getCloudFoundryClient(CloudCredentials credentials) {
-		out("Connecting to Cloud Foundry target: " + target);
+	private void out(String s) {
+		System.out.println(s);
+	}
 
-		CloudFoundryClient client = new CloudFoundryClient(credentials, getTargetURL(target),
-				(HttpProxyConfiguration) null, trustSelfSignedCerts);
+	public static String formatMBytes(int size) {
+		int g = size / 1024;
 
-		if (verbose) {
-			client.registerRestLogListener(new SampleRestLogCallback());
+		if (g > 1) {
+			return g + "G";
+		} else {
+			return size + "M";
 		}
+	}
 
-		if (username != null) {
-			client.login();
-		}
+	public static String formatBytes(double size) {
+		double k = size / 1024.0;
+		double m = k / 1024.0;
+		double g = m / 1024.0;
 
-		return client;
+		// Math.rint rounds half to even, as DecimalFormat does
+		if (g > 1) {
+			return (long) Math.rint(g) + "G";
+		} else if (m > 1) {
+			return (long) Math.rint(m) + "M";
+		} else if (k > 1) {
+			return (long) Math.rint(k) + "K";
+		} else {
+			return (long) Math.rint(size) + "B";
+		}
 	}
 
-	private void validateArgs() {
-		if ((username != null || password != null) && (accessToken != null || refreshToken != null)) {
-			error("username/password and accessToken/refreshToken options can not be used together");
-		}
 
-		if (optionsNotPaired(username, password)) {
-			error("--username and --password options must be provided together");
+	/**
+	 * The orgs of one cycle that are being measured, collected in the order they were listed in. What a task
+	 * measured is visible to the cycle once it counted down the latch. A foundation runs one cycle at a time, so
+	 * the slots of its cycle are those of the foundation.
+	 */
+	private static class Measurement {
+
+		private final Foundation foundation;
+
+		private final Map<UUID, List<CloudSpace>> spacesByOrg;
+
+		private final Map<UUID, int[]> appUsageBySpace;
+
+		private final OrgUsage[] orgUsages;
+
+		private final CountDownLatch measured;
+
+		private final Semaphore slots;
+
+		private RuntimeException failure;
+
+		Measurement(Foundation foundation, Map<UUID, List<CloudSpace>> spacesByOrg, Map<UUID, int[]> appUsageBySpace,
+				int orgs, int slots) {
+			this.foundation = foundation;
+			this.spacesByOrg = spacesByOrg;
+			this.appUsageBySpace = appUsageBySpace;
+			this.orgUsages = new OrgUsage[orgs];
+			this.measured = new CountDownLatch(orgs);
+			this.slots = new Semaphore(slots);
 		}
 
-		if (optionsNotPaired(accessToken, refreshToken)) {
-			error("--accessToken and --refreshToken options must be provided together");
+		/**
+		 * Waits until fewer than the foundation's share of the measure stage are queued or being measured.
+		 */
+		void acquireSlot() {
+			try {
+				slots.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new NotificationException("Interrupted while measuring the orgs of foundation '"
+						+ foundation.getName() + "'", e);
+			}
 		}
 
-		if (optionsNotPaired(clientID, clientSecret)) {
-			error("--clientID and --clientSecret options must be provided together");
+		void set(int index, OrgUsage orgUsage) {
+			orgUsages[index] = orgUsage;
 		}
-	}
 
-	private boolean optionsNotPaired(String first, String second) {
-		if (first != null || second != null) {
-			if (first == null || second == null) {
-				return true;
+		synchronized void fail(RuntimeException e) {
+			if (failure == null) {
+				failure = e;
 			}
 		}
-		return false;
-	}
 
-	private ST createSpaceUsageMessage(CloudFoundryOperations client, CloudOrganization org, int quotaMemoryLimit) {
-		int appCount = 0;
-		int appInstanceCount = 0;
-		int quotaUsed = 0;
-		StringBuffer spaceBody = new StringBuffer();
-		for (CloudSpace space : client.getSpaces()) {
-			if (space.getOrganization().getName().equals(org.getName())) {
-				int consumed = 0;
-				for (CloudApplication app : client.getApplications()) {
-//					if (app.getSpace().getName().equals(space.getName())
-//							&& app.getSpace().getOrganization().getName().equals(org.getName())) {
-					if (app.getSpace().getName().equals(space.getName())) {
-						int instances = app.getInstances();
-						int memory = app.getMemory();
-						consumed += (instances * memory);
-						appCount++;
-						appInstanceCount = appInstanceCount + instances;
-					}
+		/**
+		 * Waits for every org to be measured.
+		 * @throws RuntimeException the first failure to measure an org, after every org was measured
+		 */
+		List<OrgUsage> await() {
+			try {
+				measured.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new NotificationException("Interrupted while measuring the orgs of foundation '"
+						+ foundation.getName() + "'", e);
+			}
+			synchronized (this) {
+				if (failure != null) {
+					throw failure;
+				}
+			}
+			List<OrgUsage> measuredUsages = new ArrayList<OrgUsage>(orgUsages.length);
+			for (OrgUsage orgUsage : orgUsages) {
+				if (orgUsage != null) {
+					measuredUsages.add(orgUsage);
 				}
-				quotaUsed = 100 * consumed / quotaMemoryLimit;
-				spaceBody.append("* Space ").append(space.getName()).append(" is using ").append(consumed)
-						.append("M (").append(quotaUsed).append("%) of the org's memory quota.\n");
 			}
+			return measuredUsages;
 		}
-		StringBuffer messageBody = new StringBuffer();
-		messageBody.append("\nThere are ").append(appCount).append(" apps running inside this org with a total of ")
-				.append(appInstanceCount).append(" instances.\n\n");
-		messageBody.append(spaceBody);
-		ST spaceMessageTemplate = new ST(messageBody.toString());
-		return spaceMessageTemplate;
 	}
 
-	private URL getTargetURL(String target) {
-		try {
-			return getTargetURI(target).toURL();
-		} catch (MalformedURLException e) {
-			error("The target URL is not valid: " + e.getMessage());
-		}
+	private class MeasureTask implements Runnable {
 
-		return null;
-	}
+		private final Measurement measurement;
 
-	private URI getTargetURI(String target) {
-		try {
-			return new URI(target);
-		} catch (URISyntaxException e) {
-			error("The target URL is not valid: " + e.getMessage());
+		private final CloudOrganization org;
+
+		private final int index;
+
+		MeasureTask(Measurement measurement, CloudOrganization org, int index) {
+			this.measurement = measurement;
+			this.org = org;
+			this.index = index;
 		}
 
-		return null;
+		@Override
+		public void run() {
+			try {
+				measurement.set(index, measureOrg(measurement, org));
+			} catch (RuntimeException e) {
+				measurement.fail(e);
+			} finally {
+				measurement.slots.release();
+				measurement.measured.countDown();
+			}
+		}
 	}
 
-	private void out(String s) {
-		System.out.println(s);
-	}
+	private class ResolveOwnersTask implements Runnable {
 
-	private void error(String message) {
-		out(message);
-		System.exit(1);
-	}
+		private final Foundation foundation;
+
+		private final OrgUsage orgUsage;
+
+		private final int band;
+
+		ResolveOwnersTask(Foundation foundation, OrgUsage orgUsage, int band) {
+			this.foundation = foundation;
+			this.orgUsage = orgUsage;
+			this.band = band;
+		}
 
-	private static class SampleRestLogCallback implements RestLogCallback {
 		@Override
-		public void onNewLogEntry(RestLogEntry logEntry) {
-			System.out.println(String.format("REQUEST: %s %s", logEntry.getMethod(), logEntry.getUri()));
-			System.out.println(String.format("RESPONSE: %s %s %s", logEntry.getHttpStatus().toString(),
-					logEntry.getStatus(), logEntry.getMessage()));
+		public void run() {
+			List<OrgOwner> owners;
+			try {
+				owners = resolveOwners(foundation, orgUsage);
+			} catch (RuntimeException e) {
+				// the cached clients may have expired, like a failed cycle
+				foundation.invalidateCredentials();
+				throw e;
+			}
+			pipeline.submit(PipelineStage.RENDER, new RenderTask(orgUsage, owners, band));
 		}
 	}
 
-	public static String formatMBytes(int size) {
-		int g = size / 1024;
+	private class RenderTask implements Runnable {
 
-		DecimalFormat dec = new DecimalFormat("0");
+		private final OrgUsage orgUsage;
 
-		if (g > 1) {
-			return dec.format(g).concat("G");
-		} else {
-			return dec.format(size).concat("M");
+		private final List<OrgOwner> owners;
+
+		private final int band;
+
+		RenderTask(OrgUsage orgUsage, List<OrgOwner> owners, int band) {
+			this.orgUsage = orgUsage;
+			this.owners = owners;
+			this.band = band;
+		}
+
+		@Override
+		public void run() {
+			String message = render(orgUsage, owners);
+			for (OrgOwner owner : owners) {
+				if (owner.getEmail() != null) {
+					pipeline.submit(PipelineStage.DELIVER, new DeliverTask(orgUsage, owner, message, band));
+				}
+			}
 		}
 	}
 
-	public static String formatBytes(double size) {
-		double k = size / 1024.0;
-		double m = k / 1024.0;
-		double g = m / 1024.0;
+	private class DeliverTask implements Runnable {
 
-		DecimalFormat dec = new DecimalFormat("0");
+		private final OrgUsage orgUsage;
 
-		if (g > 1) {
-			return dec.format(g).concat("G");
-		} else if (m > 1) {
-			return dec.format(m).concat("M");
-		} else if (k > 1) {
-			return dec.format(k).concat("K");
-		} else {
-			return dec.format(size).concat("B");
+		private final OrgOwner owner;
+
+		private final String message;
+
+		private final int band;
+
+		DeliverTask(OrgUsage orgUsage, OrgOwner owner, String message, int band) {
+			this.orgUsage = orgUsage;
+			this.owner = owner;
+			this.message = message;
+			this.band = band;
+		}
+
+		@Override
+		public void run() {
+			deliver(orgUsage, owner, message, band);
 		}
 	}
 
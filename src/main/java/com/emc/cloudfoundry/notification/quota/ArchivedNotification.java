@@ -0,0 +1,77 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Lob;
+import javax.persistence.Table;
+
+import org.hibernate.annotations.Type;
+import org.joda.time.DateTime;
+
+/**
+ * A {@link Notification} moved out of the live table by the {@link NotificationRetentionJob}.
+ */
+@Entity
+@Table(name = "notifications_archive")
+public class ArchivedNotification {
+
+	@Id
+	@GeneratedValue(strategy = GenerationType.IDENTITY)
+	private Long id;
+
+	@Column(nullable = false)
+	private String orgGuId;
+
+	@Column(nullable = false)
+	private String userGuid;
+
+	@Column(nullable = false)
+	private String email;
+
+	@Lob
+	@Column(nullable = false)
+	private byte[] message;
+
+	@Type(type = "org.jadira.usertype.dateandtime.joda.PersistentDateTime")
+	@Column(nullable = false)
+	private DateTime lastSent;
+
+	@Type(type = "org.jadira.usertype.dateandtime.joda.PersistentDateTime")
+	@Column(nullable = false)
+	private DateTime archived;
+
+	public ArchivedNotification() {
+	}
+
+	public Long getId() {
+		return id;
+	}
+
+	public String getOrgGuId() {
+		return orgGuId;
+	}
+
+	public String getUserGuid() {
+		return userGuid;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public byte[] getMessage() {
+		return message;
+	}
+
+	public DateTime getLastSent() {
+		return lastSent;
+	}
+
+	public DateTime getArchived() {
+		return archived;
+	}
+
+}
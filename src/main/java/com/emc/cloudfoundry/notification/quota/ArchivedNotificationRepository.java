@@ -0,0 +1,7 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import org.springframework.data.repository.CrudRepository;
+
+public interface ArchivedNotificationRepository extends CrudRepository<ArchivedNotification, Long> {
+
+}
@@ -1,115 +1,125 @@
 package com.emc.cloudfoundry.notification.quota;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.joda.time.DateTime;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
 import org.springframework.core.env.Environment;
+import org.springframework.dao.DataIntegrityViolationException;
 import org.springframework.mail.MailSender;
-import org.springframework.mail.SimpleMailMessage;
-import org.springframework.scheduling.annotation.Async;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import com.sendgrid.SendGrid;
-import com.sendgrid.SendGridException;
 
 /**
- * A NotificationService implementation that sends email notifications asynchronously in a separate thread.
- * Relies on Spring's @Async support enabled by AspectJ for the asynchronous behavior.
+ * A NotificationService implementation that sends email notifications asynchronously in a separate thread: the
+ * quota check hands each notification to the pipeline's deliver stage, whose threads call
+ * {@link #sendNotification} and deliver the mail in the same thread that claimed it.
  * Uses a http://www.stringtemplate.org/ to generate the notification mail text from a template.
  */
 @Service
-public class AsyncMailNotificationService implements NotificationService {
+@Profile("!" + MappedStoreConfig.MAPPED_PROFILE)
+public class AsyncMailNotificationService extends AbstractMailNotificationService {
 
-	private final MailSender mailSender;
-
-	private final SendGrid sendGrid;
-	
 	private final NotificationRepository notificationRepository;
-
-	private final Integer numberOfHoursBeforeResend;
-	
-	private final boolean useSendGrid;
-	
-	private final String subject;
 	
 	/**
 	 * Creates the AsyncMailNotificationService.
 	 * @param mailSender the object that actually does the mail delivery using the JavaMail API.
 	 */
 	@Autowired
-	public AsyncMailNotificationService(Environment environment, MailSender mailSender, SendGrid sendGrid, NotificationRepository notificationRepository) {
-		this.mailSender = mailSender;
-		this.sendGrid = sendGrid;
+	public AsyncMailNotificationService(Environment environment, MailSender mailSender, SendGrid sendGrid, CycleEvents cycleEvents, NotificationRepository notificationRepository) {
+		super(environment, mailSender, sendGrid, cycleEvents);
 		this.notificationRepository = notificationRepository;
-		this.numberOfHoursBeforeResend = environment.getProperty("numberOfHoursBeforeResend", Integer.class);
-		this.useSendGrid = (environment.getProperty("mail.host").equals("")) ? true : false;
-		this.subject = environment.getProperty("mail.subject");
 	}
 	
 	@Override
-	public void sendNotification(String orgGuid, String userGuid, String from, List<String> to, String message) {
+	public void sendNotification(String orgGuid, String userGuid, String from, List<String> to, String message, int band) {
 		for (String email : to) {
 			NotificationPk notificationId = new NotificationPk(orgGuid, userGuid);
+			CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.DEDUP_LOOKUP);
 			Notification notification = notificationRepository.findOne(notificationId);
-			boolean shouldNotify = true;
-			if (notification != null) {
-				shouldNotify = notification.getLastSent().plusHours(numberOfHoursBeforeResend).isBefore(DateTime.now());
-			} else {
-				notification = new Notification(notificationId, email);
+			phase.end(null, orgGuid, notification == null ? 0 : 1, 0);
+			boolean shouldNotify = notification == null
+					|| isDue(notification.getLastSent(), notification.getBand(), band);
+			if (shouldNotify && claim(notificationId, notification, email, message, band)) {
+				System.out.println("Sending notification: " + message + " to : " + email + " last sent at " + (notification == null ? null : notification.getLastSent()) + " shouldResend: " + shouldNotify);
+				send(from, email, message, notificationId, notification);
 			}
-			if (shouldNotify) {
-				System.out.println("Sending notification: " + message + " to : " + notification.getEmail() + " last sent at " + notification.getLastSent() + " shouldResend: " + shouldNotify);
-				if (useSendGrid)
-					try {
-						sendGrid(from, email, message, notification);
-					} catch (SendGridException e) {
-						throw new NotificationException(e.getMessage(), e.getCause());
-					}
-				else
-					send(from, email, message, notification);
+		}
+	}
+
+	@Override
+	@Transactional
+	public void recordRecovery(Map<String, Integer> recoveredBands) {
+		// one statement per band rather than per org; a notification claimed in the meantime was sent for a band no
+		// higher than the recovered one, so it is left alone
+		Map<Integer, List<String>> orgGuidsByBand = new HashMap<Integer, List<String>>();
+		for (Map.Entry<String, Integer> entry : recoveredBands.entrySet()) {
+			List<String> orgGuids = orgGuidsByBand.get(entry.getValue());
+			if (orgGuids == null) {
+				orgGuids = new ArrayList<String>();
+				orgGuidsByBand.put(entry.getValue(), orgGuids);
 			}
+			orgGuids.add(entry.getKey());
+		}
+		for (Map.Entry<Integer, List<String>> entry : orgGuidsByBand.entrySet()) {
+			notificationRepository.lowerBands(entry.getValue(), entry.getKey());
 		}
 	}
 
 	// internal helpers
 
-	@Async
-	@Transactional
-	private void send(String from, String to, String text, Notification notification) {
-		SimpleMailMessage mailMessage = createMailMessage(from, to, text);
-		mailSender.send(mailMessage);
-		notification.setLastSent(DateTime.now());
-		notification.setMessage(text.getBytes());
-		notificationRepository.save(notification);
-	}
-	
-	@Async
-	@Transactional
-	private void sendGrid(String from, String to, String text, Notification notification) throws SendGridException {
-		SendGrid.Email mailMessage = createSendGridMessage(from, to, text);
-		sendGrid.send(mailMessage);
-		notification.setLastSent(DateTime.now());
-		notification.setMessage(text.getBytes());
-		notificationRepository.save(notification);
+	/**
+	 * Records the notification as sent with a single conditional write: an insert for the first notification of an
+	 * org manager, otherwise an update of the version it was found due at. Of several threads or instances that
+	 * found the same notification due, only the one whose write succeeds goes on to send it.
+	 * @param notification the notification as it was read, null if none was sent yet
+	 * @return whether this thread claimed the notification
+	 */
+	private boolean claim(NotificationPk notificationId, Notification notification, String email, String message,
+			int band) {
+		CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.CLAIM);
+		DateTime now = DateTime.now();
+		boolean claimed;
+		if (notification == null) {
+			try {
+				claimed = notificationRepository.insertClaimed(notificationId.getOrgGuId(),
+						notificationId.getUserGuid(), email, message.getBytes(), now.toDate(), band) == 1;
+			} catch (DataIntegrityViolationException e) {
+				claimed = false;
+			}
+		} else {
+			claimed = notificationRepository.updateClaimed(notificationId.getOrgGuId(), notificationId.getUserGuid(),
+					notification.getVersion(), email, message.getBytes(), now, band) == 1;
+		}
+		phase.end(null, notificationId.getOrgGuId(), claimed ? 1 : 0, message.length());
+		return claimed;
 	}
-	
-	private SimpleMailMessage createMailMessage(String from, String to, String text) {
-		SimpleMailMessage mailMessage = new SimpleMailMessage();
-		mailMessage.setFrom(from);
-		mailMessage.setTo(to);
-		mailMessage.setSubject(subject);
-		mailMessage.setText(text);
-		return mailMessage;
+
+	/**
+	 * Delivers a claimed notification. If delivery fails the claim is handed back, so the notification is due again
+	 * at the next quota check, unless it has been claimed again since. Runs in the thread that made the claim, so the
+	 * claim is handed back before that thread takes on the next notification.
+	 * @param notification the notification as it was read before it was claimed, null if none was sent yet
+	 */
+	private void send(String from, String to, String text, NotificationPk notificationId, Notification notification) {
+		try {
+			deliver(notificationId.getOrgGuId(), from, to, text);
+		} catch (RuntimeException e) {
+			// an inserted claim is at version 0, an updated one at the version it was found at plus one
+			if (notification == null) {
+				notificationRepository.deleteIfUnchanged(notificationId.getOrgGuId(), notificationId.getUserGuid(), 0);
+			} else {
+				notificationRepository.updateIfUnchanged(notificationId.getOrgGuId(), notificationId.getUserGuid(),
+						notification.getVersion() + 1, notification.getLastSent(), notification.getBand());
+			}
+			throw e;
+		}
 	}
-	
-	private SendGrid.Email createSendGridMessage(String from, String to, String text) {
-		SendGrid.Email mailMessage = new SendGrid.Email();
-		mailMessage.setFrom(from);
-		mailMessage.setTo(new String[] { to });
-		mailMessage.setSubject(subject);
-		mailMessage.setText(text);
-		return mailMessage;
-	}	
-}
\ No newline at end of file
+}
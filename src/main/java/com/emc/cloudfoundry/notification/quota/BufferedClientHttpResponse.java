@@ -0,0 +1,67 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpResponse;
+
+/**
+ * A response whose body has been read into memory, so interceptors can look at it and still hand it on.
+ * The status and headers may differ from those of the response it was read from, e.g. to answer a request
+ * that was revalidated with a 304 from a cached body.
+ */
+class BufferedClientHttpResponse implements ClientHttpResponse {
+
+	private final ClientHttpResponse response;
+
+	private final int status;
+
+	private final HttpHeaders headers;
+
+	private final byte[] body;
+
+	BufferedClientHttpResponse(ClientHttpResponse response, byte[] body) throws IOException {
+		this(response, response.getRawStatusCode(), response.getHeaders(), body);
+	}
+
+	BufferedClientHttpResponse(ClientHttpResponse response, int status, HttpHeaders headers, byte[] body) {
+		this.response = response;
+		this.status = status;
+		this.headers = headers;
+		this.body = body;
+	}
+
+	@Override
+	public InputStream getBody() {
+		return new ByteArrayInputStream(body);
+	}
+
+	@Override
+	public HttpHeaders getHeaders() {
+		return headers;
+	}
+
+	@Override
+	public HttpStatus getStatusCode() {
+		return HttpStatus.valueOf(status);
+	}
+
+	@Override
+	public int getRawStatusCode() {
+		return status;
+	}
+
+	@Override
+	public String getStatusText() {
+		return getStatusCode().getReasonPhrase();
+	}
+
+	@Override
+	public void close() {
+		response.close();
+	}
+
+}
@@ -0,0 +1,301 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Constructor;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Records every {@link CyclePhase} of a quota check as a Java Flight Recorder event carrying the foundation, the
+ * org guid and a count and size in bytes, so a slow cycle can be taken apart after the fact. The events are
+ * defined without stack traces and their fields are only set for events the recorder keeps, so they can stay on.
+ * The application is built for Java 7, so the jdk.jfr API is looked up reflectively and the event types are
+ * defined at runtime through jdk.jfr.EventFactory; on a JVM without it (before 8u262) phases are not recorded.
+ * When jfr.slowCycleThreshold is set, a continuous recording covering the last jfr.maxAge seconds is kept and
+ * dumped to jfr.dumpDirectory whenever a cycle takes longer than the threshold, at most once per jfr.dumpInterval.
+ */
+@Component
+public class CycleEvents {
+
+	private static final Log logger = LogFactory.getLog(CycleEvents.class);
+
+	private static final Phase NOT_RECORDED = new Phase();
+
+	private static final String[] FIELDS = { "foundation", "orgGuid", "count", "bytes" };
+
+	private static final Class<?>[] FIELD_TYPES = { String.class, String.class, long.class, long.class };
+
+	private final Map<CyclePhase, MethodHandle> eventFactories = new EnumMap<CyclePhase, MethodHandle>(CyclePhase.class);
+
+	private final long slowCycleThreshold;
+
+	private final long dumpInterval;
+
+	private final File dumpDirectory;
+
+	private final AtomicLong lastDump = new AtomicLong();
+
+	private Jfr jfr;
+
+	private Object recording;
+
+	@Autowired
+	public CycleEvents(Environment environment) {
+		this(environment.getProperty("jfr.enabled", Boolean.class, true),
+				environment.getProperty("jfr.slowCycleThreshold", Long.class, 0L),
+				environment.getProperty("jfr.maxAge", Long.class, 600L),
+				environment.getProperty("jfr.dumpInterval", Long.class, 300000L),
+				new File(environment.getProperty("jfr.dumpDirectory",
+						new File(System.getProperty("java.io.tmpdir"), "notification-quota-jfr").getPath())));
+	}
+
+	/**
+	 * @param slowCycleThreshold the cycle duration in milliseconds above which the recording is dumped, 0 to never dump
+	 * @param maxAge the seconds of history the continuous recording keeps
+	 * @param dumpInterval the minimum number of milliseconds between two dumps
+	 */
+	public CycleEvents(boolean enabled, long slowCycleThreshold, long maxAge, long dumpInterval, File dumpDirectory) {
+		this.slowCycleThreshold = slowCycleThreshold;
+		this.dumpInterval = dumpInterval;
+		this.dumpDirectory = dumpDirectory;
+		if (!enabled) {
+			return;
+		}
+		try {
+			Jfr jfr = new Jfr();
+			for (CyclePhase phase : CyclePhase.values()) {
+				eventFactories.put(phase, jfr.defineEvent(phase));
+			}
+			if (slowCycleThreshold > 0) {
+				recording = jfr.startRecording(maxAge);
+			}
+			this.jfr = jfr;
+		} catch (ReflectiveOperationException | RuntimeException e) {
+			eventFactories.clear();
+			System.out.println("Java Flight Recorder is not available, quota check phases are not recorded (" + e + ").");
+		}
+	}
+
+	public boolean isRecording() {
+		return jfr != null;
+	}
+
+	/**
+	 * Starts timing a phase; the event is recorded when {@link Phase#end} is called.
+	 */
+	public Phase begin(CyclePhase phase) {
+		MethodHandle eventFactory = eventFactories.get(phase);
+		return eventFactory == null ? NOT_RECORDED : new RecordedPhase(jfr, eventFactory);
+	}
+
+	/**
+	 * Dumps the recording when the cycle of the given foundation took longer than jfr.slowCycleThreshold.
+	 * @return the dump file, null if no dump was taken
+	 */
+	public File cycleCompleted(String foundation, long elapsedMillis) {
+		if (jfr == null || slowCycleThreshold <= 0 || elapsedMillis < slowCycleThreshold) {
+			return null;
+		}
+		long now = System.currentTimeMillis();
+		long last = lastDump.get();
+		if (now - last < dumpInterval || !lastDump.compareAndSet(last, now)) {
+			return null;
+		}
+		File file = new File(dumpDirectory, "cycle-" + foundation + "-" + now + ".jfr");
+		try {
+			if (!dumpDirectory.isDirectory() && !dumpDirectory.mkdirs()) {
+				throw new IOException("Could not create " + dumpDirectory);
+			}
+			if (jfr.dumpSnapshot(file.toPath())) {
+				System.out.println("Quota check of foundation '" + foundation + "' took " + elapsedMillis
+						+ "ms, flight recording dumped to " + file);
+				return file;
+			}
+		} catch (ReflectiveOperationException | IOException e) {
+			logger.error("Dumping the flight recording of foundation '" + foundation + "' failed", e);
+		}
+		return null;
+	}
+
+	@PreDestroy
+	public void close() {
+		if (recording != null) {
+			try {
+				jfr.close(recording);
+			} catch (ReflectiveOperationException e) {
+				logger.warn("Closing the flight recording failed", e);
+			}
+			recording = null;
+		}
+	}
+
+	/**
+	 * A phase being timed. The base class records nothing.
+	 */
+	public static class Phase {
+
+		public void end(String foundation, String orgGuid, long count, long bytes) {
+		}
+	}
+
+	private static class RecordedPhase extends Phase {
+
+		private final Jfr jfr;
+
+		private final Object event;
+
+		RecordedPhase(Jfr jfr, MethodHandle eventFactory) {
+			this.jfr = jfr;
+			this.event = jfr.begin(eventFactory);
+		}
+
+		@Override
+		public void end(String foundation, String orgGuid, long count, long bytes) {
+			jfr.commit(event, foundation, orgGuid, count, bytes);
+		}
+	}
+
+	/**
+	 * The parts of the jdk.jfr API used here. Events are driven through method handles rather than reflection, so
+	 * recording one costs about as much as a compiled event class.
+	 */
+	private static class Jfr {
+
+		private final Class<?> eventClass = Class.forName("jdk.jfr.Event");
+
+		private final Class<?> recordingClass = Class.forName("jdk.jfr.Recording");
+
+		private final Object flightRecorder = Class.forName("jdk.jfr.FlightRecorder").getMethod("getFlightRecorder")
+				.invoke(null);
+
+		private final MethodHandle begin;
+
+		private final MethodHandle end;
+
+		private final MethodHandle shouldCommit;
+
+		private final MethodHandle set;
+
+		private final MethodHandle commit;
+
+		Jfr() throws ReflectiveOperationException {
+			MethodHandles.Lookup lookup = MethodHandles.publicLookup();
+			MethodType voidType = MethodType.methodType(void.class);
+			begin = lookup.findVirtual(eventClass, "begin", voidType).asType(MethodType.methodType(void.class, Object.class));
+			end = lookup.findVirtual(eventClass, "end", voidType).asType(MethodType.methodType(void.class, Object.class));
+			commit = lookup.findVirtual(eventClass, "commit", voidType).asType(MethodType.methodType(void.class, Object.class));
+			shouldCommit = lookup.findVirtual(eventClass, "shouldCommit", MethodType.methodType(boolean.class))
+					.asType(MethodType.methodType(boolean.class, Object.class));
+			set = lookup.findVirtual(eventClass, "set", MethodType.methodType(void.class, int.class, Object.class))
+					.asType(MethodType.methodType(void.class, Object.class, int.class, Object.class));
+		}
+
+		/**
+		 * Defines the event type of a phase and returns a handle creating its events.
+		 */
+		MethodHandle defineEvent(CyclePhase phase) throws ReflectiveOperationException {
+			Constructor<?> annotation = Class.forName("jdk.jfr.AnnotationElement").getConstructor(Class.class, Object.class);
+			List<Object> annotations = new ArrayList<Object>();
+			annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), phase.getEventName()));
+			annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), phase.getLabel()));
+			annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { "Notification Quota" }));
+			annotations.add(annotation.newInstance(Class.forName("jdk.jfr.StackTrace"), Boolean.FALSE));
+			Constructor<?> field = Class.forName("jdk.jfr.ValueDescriptor").getConstructor(Class.class, String.class);
+			List<Object> fields = new ArrayList<Object>();
+			for (int i = 0; i < FIELDS.length; i++) {
+				fields.add(field.newInstance(FIELD_TYPES[i], FIELDS[i]));
+			}
+			Class<?> eventFactoryClass = Class.forName("jdk.jfr.EventFactory");
+			Object eventFactory = eventFactoryClass.getMethod("create", List.class, List.class).invoke(null, annotations,
+					fields);
+			return MethodHandles.publicLookup()
+					.findVirtual(eventFactoryClass, "newEvent", MethodType.methodType(eventClass)).bindTo(eventFactory)
+					.asType(MethodType.methodType(Object.class));
+		}
+
+		Object begin(MethodHandle eventFactory) {
+			try {
+				Object event = (Object) eventFactory.invokeExact();
+				begin.invokeExact(event);
+				return event;
+			} catch (Throwable e) {
+				throw new NotificationException("Could not create a flight recorder event", e);
+			}
+		}
+
+		void commit(Object event, String foundation, String orgGuid, long count, long bytes) {
+			try {
+				end.invokeExact(event);
+				if ((boolean) shouldCommit.invokeExact(event)) {
+					set.invokeExact(event, 0, (Object) foundation);
+					set.invokeExact(event, 1, (Object) orgGuid);
+					set.invokeExact(event, 2, (Object) Long.valueOf(count));
+					set.invokeExact(event, 3, (Object) Long.valueOf(bytes));
+					commit.invokeExact(event);
+				}
+			} catch (Throwable e) {
+				throw new NotificationException("Could not commit a flight recorder event", e);
+			}
+		}
+
+		/**
+		 * Starts a continuous recording with the default settings, unless one is already running, e.g. because the
+		 * JVM was started with -XX:StartFlightRecording.
+		 * @return the started recording, null if one was already running
+		 */
+		Object startRecording(long maxAge) throws ReflectiveOperationException {
+			List<?> running = (List<?>) flightRecorder.getClass().getMethod("getRecordings").invoke(flightRecorder);
+			if (!running.isEmpty()) {
+				return null;
+			}
+			Class<?> configurationClass = Class.forName("jdk.jfr.Configuration");
+			Object configuration = configurationClass.getMethod("getConfiguration", String.class).invoke(null, "default");
+			Object recording = recordingClass.getConstructor(configurationClass).newInstance(configuration);
+			Class<?> durationClass = Class.forName("java.time.Duration");
+			recordingClass.getMethod("setName", String.class).invoke(recording, "notification-quota");
+			recordingClass.getMethod("setToDisk", boolean.class).invoke(recording, true);
+			recordingClass.getMethod("setMaxAge", durationClass).invoke(recording,
+					durationClass.getMethod("ofSeconds", long.class).invoke(null, maxAge));
+			recordingClass.getMethod("start").invoke(recording);
+			return recording;
+		}
+
+		/**
+		 * Writes the data of all running recordings to the given file.
+		 * @return false if there was nothing to write
+		 */
+		boolean dumpSnapshot(Path file) throws ReflectiveOperationException {
+			Object snapshot = flightRecorder.getClass().getMethod("takeSnapshot").invoke(flightRecorder);
+			try {
+				if ((Long) recordingClass.getMethod("getSize").invoke(snapshot) == 0) {
+					return false;
+				}
+				recordingClass.getMethod("dump", Path.class).invoke(snapshot, file);
+				return true;
+			} finally {
+				close(snapshot);
+			}
+		}
+
+		void close(Object recording) throws ReflectiveOperationException {
+			recordingClass.getMethod("close").invoke(recording);
+		}
+	}
+
+}
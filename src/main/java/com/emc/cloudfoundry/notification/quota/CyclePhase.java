@@ -0,0 +1,39 @@
+package com.emc.cloudfoundry.notification.quota;
+
+/**
+ * The phases of a quota check that are recorded as {@link CycleEvents}.
+ */
+public enum CyclePhase {
+
+	CYCLE("Quota Check Cycle"),
+	ORG_LISTING("Org Listing"),
+	USAGE("Org Memory Usage"),
+	SPACE_SCAN("Space And App Scan"),
+	OWNER_LOOKUP("Org Owner Lookup"),
+	RENDER("Notification Render"),
+	DEDUP_LOOKUP("Notification Dedup Lookup"),
+	CLAIM("Notification Claim"),
+	SEND("Notification Send");
+
+	private final String label;
+
+	private CyclePhase(String label) {
+		this.label = label;
+	}
+
+	public String getLabel() {
+		return label;
+	}
+
+	/**
+	 * The name of the flight recorder event type, e.g. com.emc.cloudfoundry.notification.quota.OrgListing.
+	 */
+	public String getEventName() {
+		StringBuilder name = new StringBuilder(CyclePhase.class.getPackage().getName()).append('.');
+		for (String word : name().split("_")) {
+			name.append(word.charAt(0)).append(word.substring(1).toLowerCase());
+		}
+		return name.toString();
+	}
+
+}
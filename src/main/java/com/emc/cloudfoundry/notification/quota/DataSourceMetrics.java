@@ -0,0 +1,44 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the connection counts, checkout times and prepared statement pooling of the
+ * {@link InstrumentedDataSource} as datasource.pool.* metrics, if the notification store uses one.
+ */
+@Component
+public class DataSourceMetrics implements PublicMetrics {
+
+	@Autowired(required = false)
+	private DataSource dataSource;
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		if (!(dataSource instanceof InstrumentedDataSource)) {
+			return Collections.emptyList();
+		}
+		InstrumentedDataSource pool = (InstrumentedDataSource) dataSource;
+		List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		metrics.add(new Metric<Integer>("datasource.pool.active", pool.getNumActive()));
+		metrics.add(new Metric<Integer>("datasource.pool.idle", pool.getNumIdle()));
+		metrics.add(new Metric<Integer>("datasource.pool.maxActive", pool.getMaxActive()));
+		metrics.add(new Metric<Long>("datasource.pool.checkouts", pool.getCheckouts()));
+		metrics.add(new Metric<Double>("datasource.pool.checkoutTime.mean", pool.getMeanCheckoutTime()));
+		metrics.add(new Metric<Double>("datasource.pool.checkoutTime.max", pool.getMaxCheckoutTime()));
+		metrics.add(new Metric<Long>("datasource.pool.statements.requested", pool.getStatementRequests()));
+		metrics.add(new Metric<Long>("datasource.pool.statements.prepared", pool.getStatementsPrepared()));
+		metrics.add(new Metric<Double>("datasource.pool.statements.hitRatio", pool.getStatementCacheHitRatio()));
+		return metrics;
+	}
+
+}
@@ -0,0 +1,561 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.CloudFoundryClient;
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.RestLogCallback;
+import org.cloudfoundry.client.lib.RestLogEntry;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudEntity;
+import org.cloudfoundry.client.lib.domain.CloudOrganization;
+import org.cloudfoundry.client.lib.domain.CloudQuota;
+import org.cloudfoundry.client.lib.domain.CloudSpace;
+import org.cloudfoundry.client.lib.oauth2.OauthClient;
+import org.cloudfoundry.client.lib.rest.CloudControllerClient;
+import org.cloudfoundry.client.lib.rest.CloudControllerClientFactory;
+import org.cloudfoundry.client.lib.tokens.TokensFile;
+import org.cloudfoundry.client.lib.util.RestUtil;
+import org.cloudfoundry.identity.uaa.api.UaaConnectionFactory;
+import org.cloudfoundry.identity.uaa.api.common.UaaConnection;
+import org.cloudfoundry.identity.uaa.api.user.UaaUserOperations;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.security.oauth2.client.token.grant.password.ResourceOwnerPasswordResourceDetails;
+import org.springframework.security.oauth2.common.AuthenticationScheme;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+import org.springframework.security.oauth2.common.DefaultOAuth2RefreshToken;
+import org.springframework.security.oauth2.common.OAuth2AccessToken;
+import org.springframework.util.StringUtils;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestOperations;
+import org.springframework.web.client.RestTemplate;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * A Cloud Foundry foundation monitored by this application.
+ * Each foundation owns its logged in Cloud Foundry and UAA clients, which are reused across polling cycles until a
+ * cycle fails. Its cycles run on the {@link PipelineStage#DISCOVER} stage, and a cycle is skipped while the previous
+ * one is still running, so a slow foundation does not pile up cycles. Its orgs share the later stages with those of
+ * the other foundations; on the measure stage they only get {@link Pipeline#getMeasureSlotsPerFoundation()} slots.
+ * Calls to the Cloud Controller and to UAA go through separate {@link AdaptiveConcurrencyLimiter}s.
+ * Quota definitions are cached in {@link QuotaDefinitions}, and the org, space and app lists are paged through a
+ * {@link ResponseCache} so pages that did not change since the previous cycle are not parsed again. With a
+ * {@link TrafficRecorder} the Cloud Controller traffic is recorded for replay.
+ */
+public class Foundation {
+
+	private static final Log logger = LogFactory.getLog(Foundation.class);
+
+	private static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
+
+	private final String name;
+
+	private final String target;
+
+	private final String uaaTarget;
+
+	private final String username;
+
+	private final String password;
+
+	private final String accessToken;
+
+	private final String refreshToken;
+
+	private final String clientId;
+
+	private final String clientSecret;
+
+	private final boolean trustSelfSignedCerts;
+
+	private final boolean verbose;
+
+	private final AdaptiveConcurrencyLimiter cloudControllerLimiter;
+
+	private final AdaptiveConcurrencyLimiter uaaLimiter;
+
+	private final QuotaDefinitions quotaDefinitions;
+
+	private final TrafficRecorder trafficRecorder;
+
+	private final ResponseCache responseCache;
+
+	private final AtomicBoolean running = new AtomicBoolean();
+
+	private CloudCredentials credentials;
+
+	private CloudFoundryOperations client;
+
+	private RestOperations cloudController;
+
+	private UaaUserOperations uaaUserClient;
+
+	private volatile ResolvedOrganizations resolvedOrganizations;
+
+	public Foundation(FoundationProperties.Target target, boolean verbose, AdaptiveConcurrencyLimiter cloudControllerLimiter,
+			AdaptiveConcurrencyLimiter uaaLimiter, QuotaDefinitions quotaDefinitions, TrafficRecorder trafficRecorder,
+			ResponseCache responseCache) {
+		this.name = target.getName();
+		this.target = target.getTarget();
+		this.uaaTarget = target.getUaaTarget();
+		this.username = target.getUsername();
+		this.password = target.getPassword();
+		this.accessToken = target.getAccessToken();
+		this.refreshToken = target.getRefreshToken();
+		this.clientId = target.getClientId();
+		this.clientSecret = target.getClientSecret();
+		this.trustSelfSignedCerts = target.isSkipSslValidation();
+		this.verbose = verbose;
+		this.cloudControllerLimiter = cloudControllerLimiter;
+		this.uaaLimiter = uaaLimiter;
+		this.quotaDefinitions = quotaDefinitions;
+		this.trafficRecorder = trafficRecorder;
+		this.responseCache = responseCache;
+		validate();
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public AdaptiveConcurrencyLimiter getCloudControllerLimiter() {
+		return cloudControllerLimiter;
+	}
+
+	public AdaptiveConcurrencyLimiter getUaaLimiter() {
+		return uaaLimiter;
+	}
+
+	/**
+	 * Runs the polling cycle on the given stage, unless the previous cycle is still running or the stage discards
+	 * it. The cached clients are dropped when the cycle fails, so the next cycle logs in again.
+	 */
+	public void submit(StageExecutor discover, final Runnable cycle) {
+		if (!running.compareAndSet(false, true)) {
+			System.out.println("Skipping quota check of foundation '" + name + "', the previous check is still running.");
+			return;
+		}
+		boolean submitted = false;
+		try {
+			submitted = discover.submit(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						cycle.run();
+					} catch (RuntimeException e) {
+						invalidateCredentials();
+						logger.error("Checking the quotas of foundation '" + name + "' failed", e);
+					} finally {
+						running.set(false);
+					}
+				}
+			});
+		} finally {
+			if (!submitted) {
+				running.set(false);
+			}
+		}
+		if (!submitted) {
+			System.out.println("Skipping quota check of foundation '" + name + "', the discover stage is full.");
+		}
+	}
+
+	public synchronized CloudFoundryOperations getCloudFoundryClient() {
+		if (client == null) {
+			client = createCloudFoundryClient(getCloudCredentials());
+		}
+		return client;
+	}
+
+	/**
+	 * Lists the orgs of this foundation with their quota definitions. The client does not expose the quota
+	 * definition guid of an org, so the orgs are paged straight from the Cloud Controller; their quotas are then
+	 * resolved through the {@link QuotaDefinitions} cache instead of fetching every org again with its quota.
+	 * While the response cache hands back the same parsed pages and the quota definitions were not fetched again,
+	 * the orgs resolved by the previous call are returned as they are.
+	 * @return the orgs, not to be modified
+	 */
+	public List<CloudOrganization> listOrganizations() {
+		CloudFoundryOperations client = getCloudFoundryClient();
+		List<CloudOrganization> orgs = listResources("/v2/organizations", ORGANIZATIONS);
+		long quotaRefreshes = quotaDefinitions.refreshIfStale(client);
+		ResolvedOrganizations resolved = resolvedOrganizations;
+		if (resolved != null && resolved.isResolutionOf(orgs, quotaRefreshes)) {
+			return resolved.orgs;
+		}
+		List<CloudOrganization> withQuotas = new ArrayList<CloudOrganization>(orgs.size());
+		boolean complete = true;
+		for (CloudOrganization org : orgs) {
+			// parsed orgs only carry the guid of their quota definition, which may have changed since
+			CloudQuota quota = org.getQuota() == null ? null
+					: quotaDefinitions.get(client, org.getQuota().getMeta().getGuid().toString());
+			complete &= org.getQuota() == null || quota != null;
+			withQuotas.add(new CloudOrganization(org.getMeta(), org.getName(), quota, org.isBillingEnabled()));
+		}
+		withQuotas = Collections.unmodifiableList(withQuotas);
+		// an unknown quota definition is looked up again next time, in case it was created since
+		resolvedOrganizations = complete
+				? new ResolvedOrganizations(orgs, withQuotas, quotaRefreshes) : null;
+		return withQuotas;
+	}
+
+	/**
+	 * Lists the spaces of this foundation. Their orgs only carry a guid.
+	 */
+	public List<CloudSpace> listSpaces() {
+		return listResources("/v2/spaces", SPACES);
+	}
+
+	/**
+	 * Lists the apps of this foundation with their memory and instances. Their spaces only carry a guid.
+	 */
+	public List<CloudApplication> listApplications() {
+		return listResources("/v2/apps", APPLICATIONS);
+	}
+
+	public ResponseCache getResponseCache() {
+		return responseCache;
+	}
+
+	public synchronized UaaUserOperations getUaaUserClient() {
+		if (uaaUserClient == null) {
+			uaaUserClient = createUaaUserClient(getCloudCredentials());
+		}
+		return uaaUserClient;
+	}
+
+	public synchronized void invalidateCredentials() {
+		credentials = null;
+		client = null;
+		cloudController = null;
+		uaaUserClient = null;
+		quotaDefinitions.invalidate();
+	}
+
+	public void shutdown() {
+		if (trafficRecorder != null) {
+			try {
+				trafficRecorder.close();
+			} catch (IOException e) {
+				logger.warn("Closing the traffic recording of foundation '" + name + "' failed", e);
+			}
+		}
+	}
+
+	// internal helpers
+
+	private CloudCredentials getCloudCredentials() {
+		if (credentials != null) {
+			return credentials;
+		}
+		if (username != null && password != null) {
+			if (clientId == null) {
+				credentials = new CloudCredentials(username, password);
+			} else {
+				credentials = new CloudCredentials(username, password, clientId, clientSecret);
+			}
+		} else if (accessToken != null && refreshToken != null) {
+			DefaultOAuth2RefreshToken refresh = new DefaultOAuth2RefreshToken(refreshToken);
+			DefaultOAuth2AccessToken access = new DefaultOAuth2AccessToken(accessToken);
+			access.setRefreshToken(refresh);
+
+			if (clientId == null) {
+				credentials = new CloudCredentials(access);
+			} else {
+				credentials = new CloudCredentials(access, clientId, clientSecret);
+			}
+		} else {
+			final TokensFile tokensFile = new TokensFile();
+			final OAuth2AccessToken token = tokensFile.retrieveToken(getTargetURI(target));
+
+			if (clientId == null) {
+				credentials = new CloudCredentials(token);
+			} else {
+				credentials = new CloudCredentials(token, clientId, clientSecret);
+			}
+		}
+		return credentials;
+	}
+
+	private CloudFoundryOperations createCloudFoundryClient(CloudCredentials credentials) {
+		System.out.println("Connecting to Cloud Foundry target: " + target);
+
+		// built from a factory that exposes the client's rest template, so every request it makes goes once through
+		// the limiter, and once through the recorder when recording
+		CloudControllerClientFactory factory = new CloudControllerClientFactory(null, trustSelfSignedCerts);
+		List<ClientHttpRequestInterceptor> interceptors = new ArrayList<ClientHttpRequestInterceptor>();
+		if (trafficRecorder != null) {
+			interceptors.add(trafficRecorder);
+		}
+		interceptors.add(cloudControllerLimiter);
+		CloudFoundryClient client = new CloudFoundryClient(newCloudController(factory, getTargetURL(target),
+				credentials, interceptors));
+
+		if (verbose) {
+			client.registerRestLogListener(new SampleRestLogCallback());
+		}
+
+		if (username != null) {
+			client.login();
+		}
+
+		return client;
+	}
+
+	/**
+	 * Creates a Cloud Controller client with the given factory and only then adds the interceptors to its rest
+	 * template. The client wraps the request factory of the template as it finds it, so an interceptor added before
+	 * would run once inside that wrapper and once more outside it.
+	 */
+	static CloudControllerClient newCloudController(CloudControllerClientFactory factory, URL target,
+			CloudCredentials credentials, List<ClientHttpRequestInterceptor> interceptors) {
+		CloudControllerClient cloudController = factory.newCloudController(target, credentials, (CloudSpace) null);
+		factory.getRestTemplate().getInterceptors().addAll(interceptors);
+		return cloudController;
+	}
+
+	private synchronized RestOperations getCloudControllerOperations() {
+		if (cloudController == null) {
+			cloudController = createCloudControllerOperations(getCloudCredentials());
+		}
+		return cloudController;
+	}
+
+	/**
+	 * Creates a rest template for the Cloud Controller requests the client has no method for, authorized the same
+	 * way the client authorizes its own.
+	 */
+	private RestOperations createCloudControllerOperations(CloudCredentials credentials) {
+		RestUtil restUtil = new RestUtil();
+		RestTemplate restTemplate = restUtil.createRestTemplate(null, trustSelfSignedCerts);
+		URL authorizationUrl = getTargetURL(getCloudFoundryClient().getCloudInfo().getAuthorizationEndpoint());
+		final OauthClient oauthClient = restUtil.createOauthClient(authorizationUrl, null, trustSelfSignedCerts);
+		oauthClient.init(credentials);
+		restTemplate.getInterceptors().add(new ClientHttpRequestInterceptor() {
+			@Override
+			public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+					throws IOException {
+				request.getHeaders().set(HttpHeaders.AUTHORIZATION, oauthClient.getAuthorizationHeader());
+				return execution.execute(request, body);
+			}
+		});
+		if (trafficRecorder != null) {
+			restTemplate.getInterceptors().add(trafficRecorder);
+		}
+		if (responseCache != null) {
+			restTemplate.getInterceptors().add(responseCache);
+		}
+		restTemplate.getInterceptors().add(cloudControllerLimiter);
+		return restTemplate;
+	}
+
+	/**
+	 * Pages through a list endpoint of the Cloud Controller. A page the {@link ResponseCache} finds unchanged since
+	 * the previous cycle is not parsed again; the resources parsed from it then are reused, so they must not be
+	 * modified.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> List<T> listResources(String path, final ResourceMapper<T> mapper) {
+		RestOperations cloudController = getCloudControllerOperations();
+		String baseUrl = StringUtils.trimTrailingCharacter(target, '/');
+		List<T> resources = new ArrayList<T>();
+		String next = path + "?results-per-page=100";
+		while (next != null) {
+			final URI uri = URI.create(baseUrl + next);
+			Page<T> page = cloudController.execute(uri, HttpMethod.GET, null, new ResponseExtractor<Page<T>>() {
+				@Override
+				public Page<T> extractData(ClientHttpResponse response) throws IOException {
+					Page<T> page = responseCache == null ? null : (Page<T>) responseCache.getParsed(uri, response);
+					if (page == null) {
+						page = new Page<T>(OBJECT_MAPPER.readValue(response.getBody(), Map.class), mapper);
+						if (responseCache != null) {
+							responseCache.putParsed(uri, response, page);
+						}
+					}
+					return page;
+				}
+			});
+			resources.addAll(page.resources);
+			next = page.nextUrl;
+		}
+		return resources;
+	}
+
+	private static CloudEntity.Meta meta(Object guid) {
+		return new CloudEntity.Meta(UUID.fromString((String) guid), null, null);
+	}
+
+	private static int intValue(Object value) {
+		return value == null ? 0 : ((Number) value).intValue();
+	}
+
+	private UaaUserOperations createUaaUserClient(CloudCredentials cfCredentials) {
+		URL uaaHost = getTargetURL(uaaTarget);
+		ResourceOwnerPasswordResourceDetails credentials = new ResourceOwnerPasswordResourceDetails();
+		credentials.setAccessTokenUri(uaaTarget + "/oauth/token");
+		credentials.setClientAuthenticationScheme(AuthenticationScheme.header);
+		credentials.setClientId(cfCredentials.getClientId());
+		credentials.setClientSecret(cfCredentials.getClientSecret());
+		credentials.setUsername(cfCredentials.getEmail());
+		credentials.setPassword(cfCredentials.getPassword());
+		UaaConnection connection = UaaConnectionFactory.getConnection(uaaHost, credentials);
+		// the connection keeps its rest template to itself, so the UAA calls are limited per method
+		return uaaLimiter.limit(UaaUserOperations.class, connection.userOperations());
+	}
+
+	private void validate() {
+		if (name == null) {
+			throw new NotificationException("Every foundation needs a name");
+		}
+		if ((username != null || password != null) && (accessToken != null || refreshToken != null)) {
+			throw new NotificationException(name + ": username/password and accessToken/refreshToken options can not be used together");
+		}
+		if (optionsNotPaired(username, password)) {
+			throw new NotificationException(name + ": --username and --password options must be provided together");
+		}
+		if (optionsNotPaired(accessToken, refreshToken)) {
+			throw new NotificationException(name + ": --accessToken and --refreshToken options must be provided together");
+		}
+		if (optionsNotPaired(clientId, clientSecret)) {
+			throw new NotificationException(name + ": --clientID and --clientSecret options must be provided together");
+		}
+	}
+
+	private boolean optionsNotPaired(String first, String second) {
+		if (first != null || second != null) {
+			if (first == null || second == null) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private URL getTargetURL(String target) {
+		try {
+			return getTargetURI(target).toURL();
+		} catch (MalformedURLException e) {
+			throw new NotificationException("The target URL is not valid: " + e.getMessage(), e);
+		}
+	}
+
+	private URI getTargetURI(String target) {
+		try {
+			return new URI(target);
+		} catch (URISyntaxException e) {
+			throw new NotificationException("The target URL is not valid: " + e.getMessage(), e);
+		}
+	}
+
+	private interface ResourceMapper<T> {
+		T map(Map<String, Object> metadata, Map<String, Object> entity);
+	}
+
+	private static final ResourceMapper<CloudOrganization> ORGANIZATIONS = new ResourceMapper<CloudOrganization>() {
+		@Override
+		public CloudOrganization map(Map<String, Object> metadata, Map<String, Object> entity) {
+			Object quotaGuid = entity.get("quota_definition_guid");
+			CloudQuota quota = quotaGuid == null ? null : new CloudQuota(meta(quotaGuid), null);
+			return new CloudOrganization(meta(metadata.get("guid")), (String) entity.get("name"), quota,
+					Boolean.TRUE.equals(entity.get("billing_enabled")));
+		}
+	};
+
+	private static final ResourceMapper<CloudSpace> SPACES = new ResourceMapper<CloudSpace>() {
+		@Override
+		public CloudSpace map(Map<String, Object> metadata, Map<String, Object> entity) {
+			CloudOrganization org = new CloudOrganization(meta(entity.get("organization_guid")), null);
+			return new CloudSpace(meta(metadata.get("guid")), (String) entity.get("name"), org);
+		}
+	};
+
+	private static final ResourceMapper<CloudApplication> APPLICATIONS = new ResourceMapper<CloudApplication>() {
+		@Override
+		public CloudApplication map(Map<String, Object> metadata, Map<String, Object> entity) {
+			CloudApplication app = new CloudApplication(meta(metadata.get("guid")), (String) entity.get("name"));
+			app.setSpace(new CloudSpace(meta(entity.get("space_guid")), null, null));
+			app.setMemory(intValue(entity.get("memory")));
+			app.setInstances(intValue(entity.get("instances")));
+			return app;
+		}
+	};
+
+	private static class Page<T> {
+
+		private final List<T> resources;
+
+		private final String nextUrl;
+
+		@SuppressWarnings("unchecked")
+		Page(Map<String, Object> page, ResourceMapper<T> mapper) {
+			List<Map<String, Object>> resources = (List<Map<String, Object>>) page.get("resources");
+			this.resources = new ArrayList<T>(resources.size());
+			for (Map<String, Object> resource : resources) {
+				this.resources.add(mapper.map((Map<String, Object>) resource.get("metadata"),
+						(Map<String, Object>) resource.get("entity")));
+			}
+			this.nextUrl = (String) page.get("next_url");
+		}
+	}
+
+	/**
+	 * The orgs as parsed from their pages and as resolved with their quota definitions.
+	 */
+	private static class ResolvedOrganizations {
+
+		private final List<CloudOrganization> parsed;
+
+		private final List<CloudOrganization> orgs;
+
+		private final long quotaRefreshes;
+
+		ResolvedOrganizations(List<CloudOrganization> parsed, List<CloudOrganization> orgs, long quotaRefreshes) {
+			this.parsed = parsed;
+			this.orgs = orgs;
+			this.quotaRefreshes = quotaRefreshes;
+		}
+
+		/**
+		 * Whether the given orgs are the very ones parsed before, which they are while their pages are unchanged.
+		 */
+		boolean isResolutionOf(List<CloudOrganization> parsed, long quotaRefreshes) {
+			if (this.quotaRefreshes != quotaRefreshes || this.parsed.size() != parsed.size()) {
+				return false;
+			}
+			for (int i = 0; i < parsed.size(); i++) {
+				if (this.parsed.get(i) != parsed.get(i)) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+
+	private static class SampleRestLogCallback implements RestLogCallback {
+		@Override
+		public void onNewLogEntry(RestLogEntry logEntry) {
+			System.out.println(String.format("REQUEST: %s %s", logEntry.getMethod(), logEntry.getUri()));
+			System.out.println(String.format("RESPONSE: %s %s %s", logEntry.getHttpStatus().toString(),
+					logEntry.getStatus(), logEntry.getMessage()));
+		}
+	}
+
+}
@@ -0,0 +1,176 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.properties.EnableConfigurationProperties;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.util.StringUtils;
+
+/**
+ * Configuration of the monitored foundations, either the foundations.targets list or the single foundation
+ * described by the PCF_* environment variables.
+ * Set traffic.recordDirectory to record the Cloud Controller traffic of every foundation to {name}.traffic in
+ * that directory, and traffic.replayDirectory to point every foundation at a {@link TrafficReplayServer} serving
+ * such a recording instead.
+ * The Cloud Controller list pages of every foundation are cached in a {@link ResponseCache} of at most
+ * cache.maxBytes.
+ */
+@Configuration
+@EnableConfigurationProperties(FoundationProperties.class)
+public class FoundationConfig {
+
+	@Autowired
+	private Environment environment;
+
+	@Autowired
+	private FoundationProperties foundationProperties;
+
+	@Value("${environment.VERBOSE:false}")
+	private boolean verbose;
+
+	@Value("${traffic.replayDirectory:#{null}}")
+	private String replayDirectory;
+
+	private final List<TrafficReplayServer> replayServers = new ArrayList<TrafficReplayServer>();
+
+	@Bean(destroyMethod = "shutdown")
+	public Foundations foundations() {
+		List<FoundationProperties.Target> targets = foundationProperties.getTargets();
+		if (targets.isEmpty()) {
+			targets = new ArrayList<FoundationProperties.Target>();
+			targets.add(environmentTarget());
+		}
+		Set<String> names = new HashSet<String>();
+		List<Foundation> foundations = new ArrayList<Foundation>();
+		for (FoundationProperties.Target target : targets) {
+			validate(target);
+			if (!names.add(target.getName())) {
+				throw new NotificationException("Foundation '" + target.getName() + "' is defined more than once");
+			}
+			if (replayDirectory != null) {
+				replay(target);
+			}
+			foundations.add(new Foundation(target, verbose, createLimiter(target.getName(), "cf", 2000),
+					createLimiter(target.getName(), "uaa", 1000),
+					new QuotaDefinitions(environment.getProperty("quotas.refreshInterval", Long.class, 600000L)),
+					createTrafficRecorder(target.getName()),
+					new ResponseCache(target.getName() + ".cf",
+							environment.getProperty("cache.maxBytes", Long.class, 16L * 1024 * 1024))));
+		}
+		return new Foundations(foundations);
+	}
+
+	@PreDestroy
+	public void stopReplay() {
+		for (TrafficReplayServer replayServer : replayServers) {
+			replayServer.close();
+		}
+	}
+
+	/**
+	 * Rejects a target without a name or without an absolute http(s) Cloud Controller URL, before the first cycle
+	 * would fail on it.
+	 */
+	private void validate(FoundationProperties.Target target) {
+		if (!StringUtils.hasText(target.getName())) {
+			throw new NotificationException("Every foundation needs a name");
+		}
+		validateUrl(target.getName(), "target", target.getTarget());
+		if (target.getUaaTarget() != null) {
+			validateUrl(target.getName(), "uaaTarget", target.getUaaTarget());
+		}
+	}
+
+	private void validateUrl(String foundation, String property, String url) {
+		if (!StringUtils.hasText(url)) {
+			throw new NotificationException("Foundation '" + foundation + "' has no " + property);
+		}
+		try {
+			URI uri = new URI(url);
+			if (uri.getHost() == null || !("http".equals(uri.getScheme()) || "https".equals(uri.getScheme()))) {
+				throw new NotificationException("Foundation '" + foundation + "' has an invalid " + property + " '"
+						+ url + "', expected an http or https URL");
+			}
+		} catch (URISyntaxException e) {
+			throw new NotificationException("Foundation '" + foundation + "' has an invalid " + property + " '" + url
+					+ "'", e);
+		}
+	}
+
+	/**
+	 * Creates the recorder of a foundation's traffic when traffic.recordDirectory is set.
+	 */
+	private TrafficRecorder createTrafficRecorder(String foundation) {
+		String recordDirectory = environment.getProperty("traffic.recordDirectory");
+		if (recordDirectory == null) {
+			return null;
+		}
+		if (replayDirectory != null) {
+			throw new NotificationException("traffic.recordDirectory and traffic.replayDirectory can not be used together");
+		}
+		File file = new File(recordDirectory, foundation + ".traffic");
+		try {
+			return new TrafficRecorder(file);
+		} catch (IOException e) {
+			throw new NotificationException("Could not record to " + file, e);
+		}
+	}
+
+	/**
+	 * Points the target at a server replaying the foundation's recording from traffic.replayDirectory.
+	 */
+	private void replay(FoundationProperties.Target target) {
+		File file = new File(replayDirectory, target.getName() + ".traffic");
+		try {
+			TrafficReplayServer replayServer = new TrafficReplayServer(file, 0,
+					environment.getProperty("traffic.replaySpeed", Double.class, 1.0));
+			replayServers.add(replayServer);
+			target.setTarget(replayServer.getUrl());
+			target.setUaaTarget(replayServer.getUrl());
+		} catch (IOException e) {
+			throw new NotificationException("Could not replay " + file, e);
+		}
+	}
+
+	/**
+	 * Creates the limiter of one API of a foundation from the limiter.{api}.* properties.
+	 */
+	private AdaptiveConcurrencyLimiter createLimiter(String foundation, String api, long defaultLatencyTarget) {
+		String prefix = "limiter." + api + ".";
+		return new AdaptiveConcurrencyLimiter(foundation + "." + api,
+				environment.getProperty(prefix + "initialLimit", Integer.class, 4),
+				environment.getProperty(prefix + "minLimit", Integer.class, 1),
+				environment.getProperty(prefix + "maxLimit", Integer.class, 64),
+				environment.getProperty(prefix + "latencyTarget", Long.class, defaultLatencyTarget),
+				environment.getProperty(prefix + "backoffRatio", Double.class, 0.5));
+	}
+
+	private FoundationProperties.Target environmentTarget() {
+		FoundationProperties.Target target = new FoundationProperties.Target();
+		target.setName("default");
+		target.setTarget(environment.getProperty("PCF_TARGET"));
+		target.setUaaTarget(environment.getProperty("PCF_UAA_TARGET"));
+		target.setUsername(environment.getProperty("PCF_USERNAME"));
+		target.setPassword(environment.getProperty("PCF_PASSWORD"));
+		target.setAccessToken(environment.getProperty("PCF_UAA_ACCESS_TOKEN"));
+		target.setRefreshToken(environment.getProperty("PCF_UAA_REFRESH_TOKEN"));
+		target.setClientId(environment.getProperty("PCF_UAA_CLIENT_ID"));
+		target.setClientSecret(environment.getProperty("PCF_UAA_CLIENT_SECRET"));
+		target.setSkipSslValidation(environment.getProperty("SKIP_SSL_VALIDATION", Boolean.class, false));
+		return target;
+	}
+
+}
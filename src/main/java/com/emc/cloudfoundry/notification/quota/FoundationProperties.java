@@ -0,0 +1,136 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.springframework.boot.context.properties.ConfigurationProperties;
+
+/**
+ * The Cloud Foundry foundations to monitor, bound from the foundations.targets list, e.g.
+ * <pre>
+ * foundations.targets[0].name=east
+ * foundations.targets[0].target=https://api.east.example.com
+ * foundations.targets[0].uaaTarget=https://uaa.east.example.com
+ * foundations.targets[0].username=admin
+ * foundations.targets[0].password=secret
+ * </pre>
+ * When no targets are listed, the single foundation described by the PCF_* environment variables is monitored.
+ */
+@ConfigurationProperties(prefix = "foundations")
+public class FoundationProperties {
+
+	private List<Target> targets = new ArrayList<Target>();
+
+	public List<Target> getTargets() {
+		return targets;
+	}
+
+	public void setTargets(List<Target> targets) {
+		this.targets = targets;
+	}
+
+	public static class Target {
+
+		private String name;
+
+		private String target;
+
+		private String uaaTarget;
+
+		private String username;
+
+		private String password;
+
+		private String accessToken;
+
+		private String refreshToken;
+
+		private String clientId;
+
+		private String clientSecret;
+
+		private boolean skipSslValidation;
+
+		public String getName() {
+			return name;
+		}
+
+		public void setName(String name) {
+			this.name = name;
+		}
+
+		public String getTarget() {
+			return target;
+		}
+
+		public void setTarget(String target) {
+			this.target = target;
+		}
+
+		public String getUaaTarget() {
+			return uaaTarget;
+		}
+
+		public void setUaaTarget(String uaaTarget) {
+			this.uaaTarget = uaaTarget;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public void setUsername(String username) {
+			this.username = username;
+		}
+
+		public String getPassword() {
+			return password;
+		}
+
+		public void setPassword(String password) {
+			this.password = password;
+		}
+
+		public String getAccessToken() {
+			return accessToken;
+		}
+
+		public void setAccessToken(String accessToken) {
+			this.accessToken = accessToken;
+		}
+
+		public String getRefreshToken() {
+			return refreshToken;
+		}
+
+		public void setRefreshToken(String refreshToken) {
+			this.refreshToken = refreshToken;
+		}
+
+		public String getClientId() {
+			return clientId;
+		}
+
+		public void setClientId(String clientId) {
+			this.clientId = clientId;
+		}
+
+		public String getClientSecret() {
+			return clientSecret;
+		}
+
+		public void setClientSecret(String clientSecret) {
+			this.clientSecret = clientSecret;
+		}
+
+		public boolean isSkipSslValidation() {
+			return skipSslValidation;
+		}
+
+		public void setSkipSslValidation(boolean skipSslValidation) {
+			this.skipSslValidation = skipSslValidation;
+		}
+
+	}
+
+}
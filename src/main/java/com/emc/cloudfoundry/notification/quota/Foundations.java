@@ -0,0 +1,45 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The foundations monitored by this application.
+ */
+public class Foundations implements Iterable<Foundation> {
+
+	private final List<Foundation> foundations;
+
+	public Foundations(List<Foundation> foundations) {
+		this.foundations = Collections.unmodifiableList(foundations);
+	}
+
+	@Override
+	public Iterator<Foundation> iterator() {
+		return foundations.iterator();
+	}
+
+	/**
+	 * Returns the foundation of the given name, null if there is none.
+	 */
+	public Foundation get(String name) {
+		for (Foundation foundation : foundations) {
+			if (foundation.getName().equals(name)) {
+				return foundation;
+			}
+		}
+		return null;
+	}
+
+	public int size() {
+		return foundations.size();
+	}
+
+	public void shutdown() {
+		for (Foundation foundation : foundations) {
+			foundation.shutdown();
+		}
+	}
+
+}
@@ -2,22 +2,25 @@ package com.emc.cloudfoundry.notification.quota;
 
 import javax.sql.DataSource;
 
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
 import org.springframework.data.jpa.repository.config.EnableJpaRepositories;
-import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
-import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
 
 @Configuration
 @Profile("in-memory")
 @EnableJpaRepositories
 public class H2DataSourceConfig extends AbstractLocalDataSourceConfig {
-    @Bean
+
+    @Autowired
+    private Environment environment;
+
+    // the database outlives the pool, like the embedded database it replaces did within a JVM
+    @Bean(destroyMethod = "close")
     public DataSource dataSource() {
-        return new EmbeddedDatabaseBuilder()
-                .setName("notification-quota-db")
-                .setType(EmbeddedDatabaseType.H2)
-                .build();
+        return createBasicDataSource(environment, "jdbc:h2:mem:notification-quota-db;DB_CLOSE_DELAY=-1",
+                "org.h2.Driver", "sa", "");
     }
 }
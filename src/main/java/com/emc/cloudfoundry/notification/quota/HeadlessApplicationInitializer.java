@@ -0,0 +1,99 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.lang.reflect.Method;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanFactory;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.beans.factory.support.RootBeanDefinition;
+import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.context.weaving.LoadTimeWeaverAware;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.AnnotationUtils;
+import org.springframework.orm.jpa.AbstractEntityManagerFactoryBean;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Initializer for the headless worker mode.
+ * Marks every bean definition lazy except the ones that own {@link Scheduled} methods, so only the polling cycle
+ * is wired at startup and the persistence and mail infrastructure is created when the first notification is sent.
+ */
+public class HeadlessApplicationInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
+
+	@Override
+	public void initialize(ConfigurableApplicationContext applicationContext) {
+		BeanDefinitionRegistry registry = (BeanDefinitionRegistry) applicationContext.getBeanFactory();
+		registry.registerBeanDefinition(LazyInitRegistrar.class.getName(), new RootBeanDefinition(LazyInitRegistrar.class));
+	}
+
+	/**
+	 * Registers the lazy-init post processor once the configuration classes have been parsed, so it runs after
+	 * the post processors they contribute (e.g. the shared EntityManager definitions from Spring Data JPA).
+	 */
+	static class LazyInitRegistrar implements BeanDefinitionRegistryPostProcessor, Ordered {
+
+		@Override
+		public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) throws BeansException {
+			registry.registerBeanDefinition(LazyInitBeanFactoryPostProcessor.class.getName(),
+					new RootBeanDefinition(LazyInitBeanFactoryPostProcessor.class));
+		}
+
+		@Override
+		public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+		}
+
+		@Override
+		public int getOrder() {
+			return Ordered.LOWEST_PRECEDENCE;
+		}
+	}
+
+	static class LazyInitBeanFactoryPostProcessor implements BeanFactoryPostProcessor {
+
+		@Override
+		public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) throws BeansException {
+			for (String beanName : beanFactory.getBeanDefinitionNames()) {
+				BeanDefinition definition = beanFactory.getBeanDefinition(beanName);
+				if (definition.getRole() != BeanDefinition.ROLE_INFRASTRUCTURE
+						&& !hasScheduledMethods(definition, beanFactory.getBeanClassLoader())) {
+					definition.setLazyInit(true);
+					hideLoadTimeWeaverAware(beanName, definition, beanFactory);
+				}
+			}
+		}
+
+		/**
+		 * The context creates every LoadTimeWeaverAware bean up front, lazy or not, which would bootstrap JPA
+		 * at startup. Without a load-time weaver there is nothing to register, so let the entity manager
+		 * factory be predicted by its abstract type instead.
+		 */
+		private void hideLoadTimeWeaverAware(String beanName, BeanDefinition definition,
+				ConfigurableListableBeanFactory beanFactory) {
+			if (definition instanceof RootBeanDefinition
+					&& beanFactory.isTypeMatch(BeanFactory.FACTORY_BEAN_PREFIX + beanName, LoadTimeWeaverAware.class)
+					&& beanFactory.isTypeMatch(BeanFactory.FACTORY_BEAN_PREFIX + beanName, AbstractEntityManagerFactoryBean.class)) {
+				((RootBeanDefinition) definition).setTargetType(AbstractEntityManagerFactoryBean.class);
+			}
+		}
+
+		private boolean hasScheduledMethods(BeanDefinition definition, ClassLoader classLoader) {
+			String className = definition.getBeanClassName();
+			if (className == null || !ClassUtils.isPresent(className, classLoader)) {
+				return false;
+			}
+			for (Method method : ReflectionUtils.getAllDeclaredMethods(ClassUtils.resolveClassName(className, classLoader))) {
+				if (AnnotationUtils.findAnnotation(method, Scheduled.class) != null) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+}
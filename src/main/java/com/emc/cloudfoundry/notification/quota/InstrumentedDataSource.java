@@ -0,0 +1,147 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.apache.commons.dbcp.ConnectionFactory;
+import org.springframework.core.env.Environment;
+
+/**
+ * A DBCP connection pool configured by the datasource.* properties, with validation, prepared statement pooling
+ * and abandoned connection detection, that measures how long connections take to check out and how often a
+ * prepared statement comes from the pool.
+ * <p>
+ * Statements are counted twice: as the application prepares them on the connections it checks out, and as the
+ * pool prepares them on the database connections underneath when it has no pooled statement for the SQL. The
+ * difference are the statements the pool saved preparing. With datasource.removeAbandoned=true, connections held
+ * longer than datasource.removeAbandonedTimeout seconds are closed once the pool runs low, and logged with the stack
+ * that checked them out; it is off by default, as it would also close the connection of a long export.
+ */
+public class InstrumentedDataSource extends BasicDataSource {
+
+	private static final double NANOS_PER_MILLI = 1000000.0;
+
+	private final AtomicLong checkouts = new AtomicLong();
+
+	private final AtomicLong checkoutNanos = new AtomicLong();
+
+	private final AtomicLong maxCheckoutNanos = new AtomicLong();
+
+	private final AtomicLong statementRequests = new AtomicLong();
+
+	private final AtomicLong statementsPrepared = new AtomicLong();
+
+	public InstrumentedDataSource(Environment environment, int defaultMaxActive) {
+		int maxActive = environment.getProperty("datasource.maxActive", Integer.class, defaultMaxActive);
+		setMaxActive(maxActive);
+		setMaxIdle(environment.getProperty("datasource.maxIdle", Integer.class, maxActive));
+		setMinIdle(environment.getProperty("datasource.minIdle", Integer.class, 0));
+		setInitialSize(environment.getProperty("datasource.initialSize", Integer.class, 0));
+		setMaxWait(environment.getProperty("datasource.maxWait", Long.class, 10000L));
+		setValidationQuery(environment.getProperty("datasource.validationQuery", "SELECT 1"));
+		setValidationQueryTimeout(environment.getProperty("datasource.validationQueryTimeout", Integer.class, 5));
+		setTestOnBorrow(environment.getProperty("datasource.testOnBorrow", Boolean.class, true));
+		setTestWhileIdle(environment.getProperty("datasource.testWhileIdle", Boolean.class, true));
+		setTimeBetweenEvictionRunsMillis(environment.getProperty("datasource.timeBetweenEvictionRuns", Long.class,
+				30000L));
+		setMinEvictableIdleTimeMillis(environment.getProperty("datasource.minEvictableIdleTime", Long.class, 60000L));
+		setPoolPreparedStatements(environment.getProperty("datasource.poolPreparedStatements", Boolean.class, true));
+		setMaxOpenPreparedStatements(environment.getProperty("datasource.maxOpenPreparedStatements", Integer.class,
+				50));
+		setRemoveAbandoned(environment.getProperty("datasource.removeAbandoned", Boolean.class, false));
+		setRemoveAbandonedTimeout(environment.getProperty("datasource.removeAbandonedTimeout", Integer.class, 300));
+		setLogAbandoned(environment.getProperty("datasource.logAbandoned", Boolean.class, true));
+	}
+
+	@Override
+	public Connection getConnection() throws SQLException {
+		long start = System.nanoTime();
+		Connection connection = super.getConnection();
+		recordCheckout(System.nanoTime() - start);
+		return countStatements(connection, statementRequests);
+	}
+
+	public long getCheckouts() {
+		return checkouts.get();
+	}
+
+	/**
+	 * The mean time a connection took to check out in milliseconds, validation included.
+	 */
+	public double getMeanCheckoutTime() {
+		long count = checkouts.get();
+		return count == 0 ? 0 : checkoutNanos.get() / NANOS_PER_MILLI / count;
+	}
+
+	/**
+	 * The longest time a connection took to check out in milliseconds.
+	 */
+	public double getMaxCheckoutTime() {
+		return maxCheckoutNanos.get() / NANOS_PER_MILLI;
+	}
+
+	public long getStatementRequests() {
+		return statementRequests.get();
+	}
+
+	public long getStatementsPrepared() {
+		return statementsPrepared.get();
+	}
+
+	/**
+	 * The share of prepared statements that came from the pool, 0 before the first one.
+	 */
+	public double getStatementCacheHitRatio() {
+		long requests = statementRequests.get();
+		return requests == 0 ? 0 : Math.max(0, (double) (requests - statementsPrepared.get()) / requests);
+	}
+
+	@Override
+	protected ConnectionFactory createConnectionFactory() throws SQLException {
+		final ConnectionFactory connectionFactory = super.createConnectionFactory();
+		return new ConnectionFactory() {
+			@Override
+			public Connection createConnection() throws SQLException {
+				return countStatements(connectionFactory.createConnection(), statementsPrepared);
+			}
+		};
+	}
+
+	// internal helpers
+
+	private void recordCheckout(long nanos) {
+		checkouts.incrementAndGet();
+		checkoutNanos.addAndGet(nanos);
+		long max = maxCheckoutNanos.get();
+		while (nanos > max && !maxCheckoutNanos.compareAndSet(max, nanos)) {
+			max = maxCheckoutNanos.get();
+		}
+	}
+
+	/**
+	 * Wraps a connection to count the statements prepared on it.
+	 */
+	private static Connection countStatements(final Connection connection, final AtomicLong counter) {
+		return (Connection) Proxy.newProxyInstance(InstrumentedDataSource.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("prepareStatement") || method.getName().equals("prepareCall")) {
+							counter.incrementAndGet();
+						}
+						try {
+							return method.invoke(connection, args);
+						} catch (InvocationTargetException e) {
+							throw e.getTargetException();
+						}
+					}
+				});
+	}
+
+}
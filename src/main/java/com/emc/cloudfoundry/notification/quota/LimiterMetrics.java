@@ -0,0 +1,40 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the current limit, in-flight calls, queueing delay and drops of every foundation's
+ * {@link AdaptiveConcurrencyLimiter}s as limiter.{foundation}.{api}.* metrics.
+ */
+@Component
+public class LimiterMetrics implements PublicMetrics {
+
+	@Autowired
+	private Foundations foundations;
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		for (Foundation foundation : foundations) {
+			addMetrics(metrics, foundation.getCloudControllerLimiter());
+			addMetrics(metrics, foundation.getUaaLimiter());
+		}
+		return metrics;
+	}
+
+	private void addMetrics(List<Metric<?>> metrics, AdaptiveConcurrencyLimiter limiter) {
+		String prefix = "limiter." + limiter.getName() + ".";
+		metrics.add(new Metric<Integer>(prefix + "limit", limiter.getLimit()));
+		metrics.add(new Metric<Integer>(prefix + "inFlight", limiter.getInFlight()));
+		metrics.add(new Metric<Double>(prefix + "queueingDelay", limiter.getQueueingDelay()));
+		metrics.add(new Metric<Long>(prefix + "drops", limiter.getDrops()));
+	}
+
+}
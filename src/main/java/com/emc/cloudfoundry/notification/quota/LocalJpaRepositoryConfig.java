@@ -9,6 +9,8 @@ import org.springframework.orm.jpa.JpaVendorAdapter;
 import org.springframework.orm.jpa.vendor.Database;
 import org.springframework.orm.jpa.vendor.HibernateJpaVendorAdapter;
 
+import java.util.Properties;
+
 @Configuration
 @Profile("in-memory")
 @EnableJpaRepositories
@@ -24,8 +26,15 @@ public class LocalJpaRepositoryConfig extends AbstractJpaRepositoryConfig {
         HibernateJpaVendorAdapter jpaVendorAdapter = new HibernateJpaVendorAdapter();
         jpaVendorAdapter.setDatabase(Database.H2);
         jpaVendorAdapter.setDatabasePlatform(H2Dialect.class.getName());
-        jpaVendorAdapter.setGenerateDdl(true);
+        jpaVendorAdapter.setGenerateDdl(false);
         jpaVendorAdapter.setShowSql(false);
         return jpaVendorAdapter;
     }
+
+    // the schema is owned by the Flyway migrations in db/migration
+    protected Properties getAdditionalProperties() {
+        Properties properties = new Properties();
+        properties.setProperty(org.hibernate.cfg.Environment.HBM2DDL_AUTO, "validate");
+        return properties;
+    }
 }
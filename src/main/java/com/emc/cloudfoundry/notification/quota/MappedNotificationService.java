@@ -0,0 +1,92 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.mail.MailSender;
+import org.springframework.stereotype.Service;
+
+import com.sendgrid.SendGrid;
+
+/**
+ * A NotificationService implementation that keeps the time and band a notification was last sent for in an
+ * embedded {@link MappedNotificationStore}, so suppressing resends never leaves the process.
+ */
+@Service
+@Profile(MappedStoreConfig.MAPPED_PROFILE)
+public class MappedNotificationService extends AbstractMailNotificationService {
+
+	private static final long NOT_CLAIMED = -1;
+
+	private final MappedNotificationStore store;
+
+	@Autowired
+	public MappedNotificationService(Environment environment, MailSender mailSender, SendGrid sendGrid, CycleEvents cycleEvents, MappedNotificationStore store) {
+		super(environment, mailSender, sendGrid, cycleEvents);
+		this.store = store;
+	}
+
+	@Override
+	public void sendNotification(String orgGuid, String userGuid, String from, List<String> to, String message, int band) {
+		UUID org = toUuid(orgGuid);
+		UUID user = toUuid(userGuid);
+		for (String email : to) {
+			CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.DEDUP_LOOKUP);
+			long lastSentMillis = store.getLastSent(org, user);
+			DateTime lastSent = lastSentMillis == MappedNotificationStore.NOT_SENT ? null : new DateTime(lastSentMillis);
+			int lastBand = store.getBand(org, user);
+			phase.end(null, orgGuid, lastSent == null ? 0 : 1, 0);
+			boolean shouldNotify = isDue(lastSent, lastBand, band);
+			long claimed = shouldNotify ? claim(orgGuid, org, user, lastSentMillis, band) : NOT_CLAIMED;
+			if (claimed != NOT_CLAIMED) {
+				System.out.println("Sending notification: " + message + " to : " + email + " last sent at " + lastSent + " shouldResend: " + shouldNotify);
+				try {
+					deliver(orgGuid, from, email, message);
+				} catch (RuntimeException e) {
+					// entries cannot be removed, so a first notification is handed back as sent at the epoch
+					store.compareAndPutLastSent(org, user, claimed,
+							lastSentMillis == MappedNotificationStore.NOT_SENT ? 1 : lastSentMillis, lastBand);
+					throw e;
+				}
+			}
+		}
+	}
+
+	@Override
+	public void recordRecovery(Map<String, Integer> recoveredBands) {
+		if (recoveredBands.isEmpty()) {
+			return;
+		}
+		Map<UUID, Integer> bandsByOrg = new HashMap<UUID, Integer>();
+		for (Map.Entry<String, Integer> entry : recoveredBands.entrySet()) {
+			bandsByOrg.put(toUuid(entry.getKey()), entry.getValue());
+		}
+		store.lowerBands(bandsByOrg);
+	}
+
+	/**
+	 * Records the notification as sent unless another thread did since it was found due.
+	 * @return the time it was claimed at, {@link #NOT_CLAIMED} if another thread claimed it first
+	 */
+	private long claim(String orgGuid, UUID org, UUID user, long lastSentMillis, int band) {
+		CycleEvents.Phase phase = cycleEvents.begin(CyclePhase.CLAIM);
+		long now = System.currentTimeMillis();
+		boolean claimed = store.compareAndPutLastSent(org, user, lastSentMillis, now, band);
+		phase.end(null, orgGuid, claimed ? 1 : 0, 0);
+		return claimed ? now : NOT_CLAIMED;
+	}
+
+	private UUID toUuid(String guid) {
+		try {
+			return UUID.fromString(guid);
+		} catch (IllegalArgumentException e) {
+			throw new NotificationException("Not a valid guid: '" + guid + "'", e);
+		}
+	}
+}
@@ -0,0 +1,399 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.zip.CRC32;
+
+/**
+ * An embedded store that maps an (orgGuid, userGuid) pair to the time a notification was last sent and the usage
+ * band it was sent for.
+ * <p>
+ * The table is an open addressing hash table with linear probing in a memory-mapped file, so it lives outside
+ * the heap. Each slot holds both guids as four longs followed by the last sent time and the band; a last sent time
+ * of zero marks an empty slot. Every update is appended to a checksummed log and forced to disk before the table is
+ * touched. After a clean shutdown the table file is reused as is, otherwise it is rebuilt from the log and a
+ * torn record at the end of the log is dropped. The log is compacted once it holds twice as many records as
+ * the table has entries.
+ */
+public class MappedNotificationStore implements Closeable {
+
+	public static final long NOT_SENT = -1;
+
+	private static final int MAGIC = 0x4e515354;
+
+	private static final int VERSION = 2;
+
+	// magic, version, capacity, size, clean shutdown flag, log length
+	private static final int HEADER_SIZE = 32;
+
+	private static final int CAPACITY_OFFSET = 8;
+
+	private static final int SIZE_OFFSET = 12;
+
+	private static final int CLEAN_OFFSET = 16;
+
+	private static final int LOG_LENGTH_OFFSET = 24;
+
+	// org guid, user guid, last sent, band
+	private static final int SLOT_SIZE = 6 * 8;
+
+	private static final int LAST_SENT_OFFSET = 4 * 8;
+
+	private static final int BAND_OFFSET = 5 * 8;
+
+	// a slot followed by its CRC32
+	private static final int RECORD_SIZE = SLOT_SIZE + 8;
+
+	private static final int MIN_COMPACTION_RECORDS = 1024;
+
+	private final File tableFile;
+
+	private final File logFile;
+
+	private final ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE);
+
+	private final CRC32 crc = new CRC32();
+
+	private FileChannel tableChannel;
+
+	private MappedByteBuffer table;
+
+	private int capacity;
+
+	private int size;
+
+	private FileChannel logChannel;
+
+	private FileLock logLock;
+
+	private long logRecords;
+
+	/**
+	 * Opens the store in the given directory, creating it if needed.
+	 * @param directory the directory holding the table and log files
+	 * @param initialCapacity the number of entries the table should hold before it has to grow
+	 */
+	public MappedNotificationStore(File directory, int initialCapacity) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create directory " + directory);
+		}
+		this.tableFile = new File(directory, "notifications.tbl");
+		this.logFile = new File(directory, "notifications.log");
+		openLog();
+		if (!openCleanTable()) {
+			createTable(tableCapacityFor(initialCapacity));
+			replayLog();
+		}
+		markClean(false);
+	}
+
+	/**
+	 * Returns the time in milliseconds a notification was last sent, or {@link #NOT_SENT}.
+	 */
+	public synchronized long getLastSent(UUID orgGuid, UUID userGuid) {
+		int slot = findSlot(orgGuid.getMostSignificantBits(), orgGuid.getLeastSignificantBits(),
+				userGuid.getMostSignificantBits(), userGuid.getLeastSignificantBits());
+		long lastSent = table.getLong(slot + LAST_SENT_OFFSET);
+		return lastSent == 0 ? NOT_SENT : lastSent;
+	}
+
+	/**
+	 * Returns the usage band the last notification was sent for, or 0 if none was sent or the org has recovered since.
+	 */
+	public synchronized int getBand(UUID orgGuid, UUID userGuid) {
+		int slot = findSlot(orgGuid.getMostSignificantBits(), orgGuid.getLeastSignificantBits(),
+				userGuid.getMostSignificantBits(), userGuid.getLeastSignificantBits());
+		return (int) table.getLong(slot + BAND_OFFSET);
+	}
+
+	/**
+	 * Records the time in milliseconds a notification was last sent and the band it was sent for.
+	 * The update is durable once this returns.
+	 */
+	public synchronized void putLastSent(UUID orgGuid, UUID userGuid, long lastSent, int band) {
+		if (lastSent <= 0) {
+			throw new IllegalArgumentException("lastSent must be positive: " + lastSent);
+		}
+		update(orgGuid.getMostSignificantBits(), orgGuid.getLeastSignificantBits(), userGuid.getMostSignificantBits(),
+				userGuid.getLeastSignificantBits(), lastSent, band);
+	}
+
+	/**
+	 * Records the time a notification was sent and the band it was sent for, but only if the last sent time is still
+	 * the one the notification was found due at, so of several threads that found it due only one sends it.
+	 * @param expectedLastSent the last sent time read before, or {@link #NOT_SENT}
+	 * @return whether the update was made
+	 */
+	public synchronized boolean compareAndPutLastSent(UUID orgGuid, UUID userGuid, long expectedLastSent,
+			long lastSent, int band) {
+		if (getLastSent(orgGuid, userGuid) != expectedLastSent) {
+			return false;
+		}
+		putLastSent(orgGuid, userGuid, lastSent, band);
+		return true;
+	}
+
+	/**
+	 * Lowers the recorded band of every notification of the given orgs to the org's recovered band, if that is lower.
+	 * @param recoveredBands the recovered band by org guid
+	 * @return the number of notifications updated
+	 */
+	public synchronized int lowerBands(Map<UUID, Integer> recoveredBands) {
+		int updated = 0;
+		for (int slot = HEADER_SIZE; slot < HEADER_SIZE + capacity * SLOT_SIZE; slot += SLOT_SIZE) {
+			long lastSent = table.getLong(slot + LAST_SENT_OFFSET);
+			long band = table.getLong(slot + BAND_OFFSET);
+			if (lastSent == 0 || band == 0) {
+				continue;
+			}
+			Integer recoveredBand = recoveredBands.get(new UUID(table.getLong(slot), table.getLong(slot + 8)));
+			if (recoveredBand != null && recoveredBand < band) {
+				// growing the table only happens for new keys, so the slot offsets stay valid
+				update(table.getLong(slot), table.getLong(slot + 8), table.getLong(slot + 16), table.getLong(slot + 24),
+						lastSent, recoveredBand);
+				updated++;
+			}
+		}
+		return updated;
+	}
+
+	public synchronized int size() {
+		return size;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (logChannel == null) {
+			return;
+		}
+		table.putInt(SIZE_OFFSET, size);
+		table.putLong(LOG_LENGTH_OFFSET, logChannel.size());
+		markClean(true);
+		tableChannel.close();
+		logLock.release();
+		logChannel.close();
+		logChannel = null;
+	}
+
+	// internal helpers
+
+	private void update(long orgMsb, long orgLsb, long userMsb, long userLsb, long lastSent, long band) {
+		try {
+			appendRecord(orgMsb, orgLsb, userMsb, userLsb, lastSent, band);
+			logChannel.force(false);
+			logRecords++;
+			if ((size + 1) * 4L > capacity * 3L && findsEmptySlot(orgMsb, orgLsb, userMsb, userLsb)) {
+				// the log has everything, so growing is just rebuilding a bigger table from it
+				createTable(capacity * 2);
+				replayLog();
+				markClean(false);
+			} else {
+				put(orgMsb, orgLsb, userMsb, userLsb, lastSent, band);
+			}
+			if (logRecords > MIN_COMPACTION_RECORDS && logRecords > 2L * size) {
+				compactLog();
+			}
+		} catch (IOException e) {
+			throw new NotificationException("Could not update notification store " + logFile, e);
+		}
+	}
+
+	private boolean findsEmptySlot(long orgMsb, long orgLsb, long userMsb, long userLsb) {
+		return table.getLong(findSlot(orgMsb, orgLsb, userMsb, userLsb) + LAST_SENT_OFFSET) == 0;
+	}
+
+	private void openLog() throws IOException {
+		logChannel = new RandomAccessFile(logFile, "rw").getChannel();
+		logLock = logChannel.tryLock();
+		if (logLock == null) {
+			logChannel.close();
+			throw new IOException("Notification store " + logFile + " is used by another process");
+		}
+		logChannel.position(logChannel.size());
+	}
+
+	private boolean openCleanTable() throws IOException {
+		if (!tableFile.isFile() || tableFile.length() < HEADER_SIZE) {
+			return false;
+		}
+		FileChannel channel = new RandomAccessFile(tableFile, "rw").getChannel();
+		MappedByteBuffer header = channel.map(MapMode.READ_WRITE, 0, HEADER_SIZE);
+		int tableCapacity = header.getInt(CAPACITY_OFFSET);
+		if (header.getInt(0) != MAGIC || header.getInt(4) != VERSION || header.getInt(CLEAN_OFFSET) != 1
+				|| header.getLong(LOG_LENGTH_OFFSET) != logChannel.size()
+				|| channel.size() != HEADER_SIZE + (long) tableCapacity * SLOT_SIZE) {
+			channel.close();
+			return false;
+		}
+		tableChannel = channel;
+		table = channel.map(MapMode.READ_WRITE, 0, channel.size());
+		capacity = tableCapacity;
+		size = table.getInt(SIZE_OFFSET);
+		logRecords = logChannel.size() / RECORD_SIZE;
+		return true;
+	}
+
+	private void createTable(int tableCapacity) throws IOException {
+		if (tableChannel != null) {
+			tableChannel.close();
+		}
+		tableChannel = new RandomAccessFile(tableFile, "rw").getChannel();
+		tableChannel.truncate(0);
+		table = tableChannel.map(MapMode.READ_WRITE, 0, HEADER_SIZE + (long) tableCapacity * SLOT_SIZE);
+		table.putInt(0, MAGIC);
+		table.putInt(4, VERSION);
+		table.putInt(CAPACITY_OFFSET, tableCapacity);
+		capacity = tableCapacity;
+		size = 0;
+	}
+
+	private void replayLog() throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 1024);
+		long position = 0;
+		long records = 0;
+		boolean intact = true;
+		while (intact && logChannel.read(buffer, position + buffer.position()) > 0) {
+			buffer.flip();
+			while (buffer.remaining() >= RECORD_SIZE) {
+				long orgMsb = buffer.getLong();
+				long orgLsb = buffer.getLong();
+				long userMsb = buffer.getLong();
+				long userLsb = buffer.getLong();
+				long lastSent = buffer.getLong();
+				long band = buffer.getLong();
+				if (buffer.getLong() != checksum(orgMsb, orgLsb, userMsb, userLsb, lastSent, band) || lastSent <= 0) {
+					intact = false;
+					break;
+				}
+				put(orgMsb, orgLsb, userMsb, userLsb, lastSent, band);
+				position += RECORD_SIZE;
+				records++;
+			}
+			buffer.compact();
+		}
+		if (logChannel.size() != position) {
+			System.out.println("Dropping " + (logChannel.size() - position) + " bytes of incomplete records from " + logFile);
+			logChannel.truncate(position);
+		}
+		logChannel.position(position);
+		logRecords = records;
+	}
+
+	private void compactLog() throws IOException {
+		File compacted = new File(logFile.getPath() + ".tmp");
+		FileChannel channel = new RandomAccessFile(compacted, "rw").getChannel();
+		try {
+			channel.truncate(0);
+			for (int slot = HEADER_SIZE; slot < HEADER_SIZE + capacity * SLOT_SIZE; slot += SLOT_SIZE) {
+				long lastSent = table.getLong(slot + LAST_SENT_OFFSET);
+				if (lastSent != 0) {
+					fillRecord(table.getLong(slot), table.getLong(slot + 8), table.getLong(slot + 16),
+							table.getLong(slot + 24), lastSent, table.getLong(slot + BAND_OFFSET));
+					while (record.hasRemaining()) {
+						channel.write(record);
+					}
+				}
+			}
+			channel.force(false);
+		} finally {
+			channel.close();
+		}
+		logLock.release();
+		logChannel.close();
+		Files.move(compacted.toPath(), logFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		openLog();
+		logRecords = size;
+	}
+
+	private void appendRecord(long orgMsb, long orgLsb, long userMsb, long userLsb, long lastSent, long band)
+			throws IOException {
+		fillRecord(orgMsb, orgLsb, userMsb, userLsb, lastSent, band);
+		while (record.hasRemaining()) {
+			logChannel.write(record);
+		}
+	}
+
+	private void fillRecord(long orgMsb, long orgLsb, long userMsb, long userLsb, long lastSent, long band) {
+		record.clear();
+		record.putLong(orgMsb).putLong(orgLsb).putLong(userMsb).putLong(userLsb).putLong(lastSent).putLong(band);
+		record.putLong(checksum(orgMsb, orgLsb, userMsb, userLsb, lastSent, band));
+		record.flip();
+	}
+
+	private long checksum(long orgMsb, long orgLsb, long userMsb, long userLsb, long lastSent, long band) {
+		crc.reset();
+		updateChecksum(orgMsb);
+		updateChecksum(orgLsb);
+		updateChecksum(userMsb);
+		updateChecksum(userLsb);
+		updateChecksum(lastSent);
+		updateChecksum(band);
+		return crc.getValue();
+	}
+
+	private void updateChecksum(long value) {
+		for (int shift = 56; shift >= 0; shift -= 8) {
+			crc.update((int) (value >>> shift));
+		}
+	}
+
+	private void put(long orgMsb, long orgLsb, long userMsb, long userLsb, long lastSent, long band) {
+		int slot = findSlot(orgMsb, orgLsb, userMsb, userLsb);
+		if (table.getLong(slot + LAST_SENT_OFFSET) == 0) {
+			table.putLong(slot, orgMsb);
+			table.putLong(slot + 8, orgLsb);
+			table.putLong(slot + 16, userMsb);
+			table.putLong(slot + 24, userLsb);
+			size++;
+		}
+		table.putLong(slot + LAST_SENT_OFFSET, lastSent);
+		table.putLong(slot + BAND_OFFSET, band);
+	}
+
+	/**
+	 * Returns the offset of the slot holding the key, or of the empty slot where it would go.
+	 */
+	private int findSlot(long orgMsb, long orgLsb, long userMsb, long userLsb) {
+		int mask = capacity - 1;
+		int index = hash(orgMsb, orgLsb, userMsb, userLsb) & mask;
+		while (true) {
+			int slot = HEADER_SIZE + index * SLOT_SIZE;
+			if (table.getLong(slot + LAST_SENT_OFFSET) == 0
+					|| (table.getLong(slot) == orgMsb && table.getLong(slot + 8) == orgLsb
+							&& table.getLong(slot + 16) == userMsb && table.getLong(slot + 24) == userLsb)) {
+				return slot;
+			}
+			index = (index + 1) & mask;
+		}
+	}
+
+	private static int hash(long orgMsb, long orgLsb, long userMsb, long userLsb) {
+		long h = orgMsb * 0x9e3779b97f4a7c15L;
+		h = (h ^ orgLsb) * 0x9e3779b97f4a7c15L;
+		h = (h ^ userMsb) * 0x9e3779b97f4a7c15L;
+		h = (h ^ userLsb) * 0x9e3779b97f4a7c15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	private static int tableCapacityFor(int entries) {
+		int minimum = Math.max(16, entries * 4 / 3 + 1);
+		return Integer.highestOneBit(minimum - 1) << 1;
+	}
+
+	private void markClean(boolean clean) {
+		table.putInt(CLEAN_OFFSET, clean ? 1 : 0);
+		table.force();
+	}
+}
@@ -0,0 +1,69 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+
+/**
+ * Configuration for keeping the resend state in an embedded {@link MappedNotificationStore} instead of the
+ * relational notification repository. Activated with the "mapped" profile.
+ * <p>
+ * The store is only as durable as the disk it is on: when it is lost every org manager over the threshold is
+ * notified again. So mapped.directory has to be set, and on Cloud Foundry it may not be in the app or temp
+ * directory, which are on the container disk that is discarded on every restart and restage; point it at a volume
+ * service mount instead.
+ */
+@Configuration
+@Profile(MappedStoreConfig.MAPPED_PROFILE)
+public class MappedStoreConfig {
+
+	public static final String MAPPED_PROFILE = "mapped";
+
+	// the app directory of a Cloud Foundry container
+	private static final String CONTAINER_HOME = "/home/vcap";
+
+	@Autowired
+	private Environment environment;
+
+	@Bean(destroyMethod = "close")
+	public MappedNotificationStore mappedNotificationStore() throws IOException {
+		return new MappedNotificationStore(getDirectory(), environment.getProperty("mapped.capacity", Integer.class,
+				4096));
+	}
+
+	File getDirectory() throws IOException {
+		String directory = environment.getProperty("mapped.directory");
+		if (directory == null) {
+			throw new NotificationException("The " + MAPPED_PROFILE + " profile needs mapped.directory on persistent "
+					+ "disk, otherwise the resend state is lost on restart and every manager is notified again");
+		}
+		File canonical = new File(directory).getCanonicalFile();
+		if (isOnContainerDisk(environment, canonical)) {
+			throw new NotificationException("mapped.directory " + directory + " is on the container disk, which is "
+					+ "discarded on every restart and restage; use a volume service mount");
+		}
+		return canonical;
+	}
+
+	/**
+	 * Whether the given file is, when running on Cloud Foundry, in the app or temp directory of the container, which
+	 * are discarded on every restart and restage.
+	 */
+	static boolean isOnContainerDisk(Environment environment, File file) throws IOException {
+		File canonical = file.getCanonicalFile();
+		return environment.getProperty("VCAP_APPLICATION") != null && (isWithin(canonical, new File(CONTAINER_HOME))
+				|| isWithin(canonical, new File(System.getProperty("java.io.tmpdir"))));
+	}
+
+	private static boolean isWithin(File directory, File parent) throws IOException {
+		String parentPath = parent.getCanonicalPath();
+		String path = directory.getPath();
+		return path.equals(parentPath) || path.startsWith(parentPath + File.separator);
+	}
+
+}
@@ -25,14 +25,15 @@ public class MySqlRepositoryConfig extends AbstractJpaRepositoryConfig {
         HibernateJpaVendorAdapter jpaVendorAdapter = new HibernateJpaVendorAdapter();
         jpaVendorAdapter.setDatabase(Database.MYSQL);
         jpaVendorAdapter.setDatabasePlatform(MySQLDialect.class.getName());
-        jpaVendorAdapter.setGenerateDdl(true);
+        jpaVendorAdapter.setGenerateDdl(false);
         jpaVendorAdapter.setShowSql(false);
         return jpaVendorAdapter;
     }
 
+    // the schema is owned by the Flyway migrations in db/migration
     protected Properties getAdditionalProperties() {
         Properties properties = new Properties();
-        properties.setProperty(org.hibernate.cfg.Environment.HBM2DDL_AUTO, "update");
+        properties.setProperty(org.hibernate.cfg.Environment.HBM2DDL_AUTO, "validate");
         return properties;
     }
 }
@@ -3,14 +3,16 @@ package com.emc.cloudfoundry.notification.quota;
 import javax.persistence.Column;
 import javax.persistence.EmbeddedId;
 import javax.persistence.Entity;
+import javax.persistence.Index;
 import javax.persistence.Lob;
 import javax.persistence.Table;
+import javax.persistence.Version;
 
 import org.hibernate.annotations.Type;
 import org.joda.time.DateTime;
 
 @Entity
-@Table(name = "notifications")
+@Table(name = "notifications", indexes = @Index(name = "idx_notifications_last_sent", columnList = "lastSent"))
 public class Notification {
 
 	@EmbeddedId
@@ -27,6 +29,13 @@ public class Notification {
 	@Column(nullable = false)
 	private DateTime lastSent;
 
+	@Column(nullable = false)
+	private int band;
+
+	@Version
+	@Column(nullable = false)
+	private long version;
+
 	public Notification() {
 	}
 
@@ -60,6 +69,18 @@ public class Notification {
 		this.lastSent = lastSent;
 	}
 
+	public int getBand() {
+		return band;
+	}
+
+	public void setBand(int band) {
+		this.band = band;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
 	public NotificationPk getNotificationId() {
 		return notificationId;
 	}
@@ -0,0 +1,87 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.Endpoint;
+import org.springframework.boot.actuate.endpoint.mvc.MvcEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Streams the notification history written by the {@link NotificationHistoryExporter} straight to the response.
+ * The history holds the email address of every notified org manager, so this is a management endpoint: it only
+ * exists with endpoints.export.enabled=true and, unless endpoints.export.sensitive=false, requires the
+ * management.security.role like the other sensitive actuator endpoints.
+ */
+@Component
+@Profile("!" + MappedStoreConfig.MAPPED_PROFILE)
+@ConditionalOnProperty(prefix = "endpoints.export", name = "enabled")
+public class NotificationHistoryEndpoint implements MvcEndpoint {
+
+	@Autowired
+	private NotificationHistoryExporter exporter;
+
+	private final String path;
+
+	private final boolean sensitive;
+
+	@Autowired
+	public NotificationHistoryEndpoint(Environment environment) {
+		this.path = environment.getProperty("endpoints.export.path", "/notifications/export");
+		this.sensitive = environment.getProperty("endpoints.export.sensitive", Boolean.class, true);
+	}
+
+	@RequestMapping(method = RequestMethod.GET)
+	public void export(@RequestParam(value = "format", defaultValue = "csv") String format,
+			HttpServletResponse response) throws IOException {
+		NotificationHistoryExporter.Format exportFormat;
+		try {
+			exportFormat = NotificationHistoryExporter.Format.valueOf(format.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "Unknown export format: " + format);
+			return;
+		}
+		if (!exporter.tryAcquire()) {
+			response.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE, "Too many exports are running");
+			return;
+		}
+		try {
+			response.setContentType(exportFormat.getContentType());
+			response.setCharacterEncoding("UTF-8");
+			response.setHeader("Content-Disposition", "attachment; filename=notifications." + format.toLowerCase());
+			Writer writer = new BufferedWriter(new OutputStreamWriter(response.getOutputStream(), "UTF-8"));
+			exporter.export(exportFormat, writer);
+			writer.flush();
+		} finally {
+			exporter.release();
+		}
+	}
+
+	@Override
+	public String getPath() {
+		return path;
+	}
+
+	@Override
+	public boolean isSensitive() {
+		return sensitive;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Class<? extends Endpoint> getEndpointType() {
+		return null;
+	}
+
+}
@@ -0,0 +1,270 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.concurrent.Semaphore;
+
+import javax.sql.DataSource;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.PreparedStatementCreator;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Component;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+/**
+ * Writes the complete notification history, the live notifications followed by the archived ones, as CSV or
+ * newline delimited JSON. Rows are read with a forward-only, read-only cursor of export.fetchSize rows and written
+ * as they arrive, so memory use does not depend on the size of the history.
+ * An export holds one pooled connection for as long as it streams, so at most export.maxConcurrent exports run at
+ * a time and each is aborted after export.timeout milliseconds, leaving the rest of the pool to the quota checks.
+ */
+@Component
+@Profile("!" + MappedStoreConfig.MAPPED_PROFILE)
+public class NotificationHistoryExporter {
+
+	public enum Format {
+		CSV("text/csv"), NDJSON("application/x-ndjson");
+
+		private final String contentType;
+
+		private Format(String contentType) {
+			this.contentType = contentType;
+		}
+
+		public String getContentType() {
+			return contentType;
+		}
+	}
+
+	private static final String[] COLUMNS = { "orgGuid", "userGuid", "email", "lastSent", "archived", "message" };
+
+	private static final String HISTORY_QUERY = "select orgGuId, userGuid, email, lastSent, null as archived, message from notifications"
+			+ " union all select orgGuId, userGuid, email, lastSent, archived, message from notifications_archive";
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final JdbcTemplate jdbcTemplate;
+
+	private final int fetchSize;
+
+	private final long timeout;
+
+	private final Semaphore permits;
+
+	private final JsonFactory jsonFactory = new JsonFactory().disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+
+	@Autowired
+	public NotificationHistoryExporter(@Lazy DataSource dataSource, Environment environment) {
+		this.jdbcTemplate = new JdbcTemplate(dataSource);
+		this.fetchSize = environment.getProperty("export.fetchSize", Integer.class, 500);
+		this.timeout = environment.getProperty("export.timeout", Long.class, 300000L);
+		this.permits = new Semaphore(environment.getProperty("export.maxConcurrent", Integer.class, 1));
+	}
+
+	/**
+	 * Takes one of the export.maxConcurrent permits without waiting, false if all are taken.
+	 */
+	public boolean tryAcquire() {
+		return permits.tryAcquire();
+	}
+
+	public void release() {
+		permits.release();
+	}
+
+	/**
+	 * Writes the history to the given writer and returns the number of rows written.
+	 * The writer is flushed but not closed.
+	 */
+	public long export(Format format, Writer writer) throws IOException {
+		RowWriter rowWriter = format == Format.CSV ? new CsvRowWriter(writer) : new JsonRowWriter(writer);
+		rowWriter.deadline = System.currentTimeMillis() + timeout;
+		rowWriter.start();
+		try {
+			jdbcTemplate.query(new CursorStatementCreator(), rowWriter);
+		} catch (ExportException e) {
+			throw e.getCause();
+		}
+		rowWriter.finish();
+		return rowWriter.rows;
+	}
+
+	// internal helpers
+
+	private static String text(ResultSet rs, int column) throws SQLException {
+		switch (column) {
+		case 4:
+		case 5:
+			Timestamp timestamp = rs.getTimestamp(column);
+			return timestamp == null ? null : new DateTime(timestamp.getTime()).toString();
+		case 6:
+			byte[] message = rs.getBytes(column);
+			return message == null ? null : new String(message, UTF_8);
+		default:
+			return rs.getString(column);
+		}
+	}
+
+	private class CursorStatementCreator implements PreparedStatementCreator {
+		@Override
+		public PreparedStatement createPreparedStatement(Connection con) throws SQLException {
+			PreparedStatement statement = con.prepareStatement(HISTORY_QUERY, ResultSet.TYPE_FORWARD_ONLY,
+					ResultSet.CONCUR_READ_ONLY);
+			// Connector/J buffers the whole result unless asked to stream it row by row
+			boolean mysql = con.getMetaData().getDatabaseProductName().toLowerCase().contains("mysql");
+			statement.setFetchSize(mysql ? Integer.MIN_VALUE : fetchSize);
+			statement.setQueryTimeout((int) Math.max(timeout / 1000, 1));
+			return statement;
+		}
+	}
+
+	private abstract static class RowWriter implements RowCallbackHandler {
+
+		protected long rows;
+
+		protected long deadline;
+
+		void start() throws IOException {
+		}
+
+		abstract void write(ResultSet rs) throws IOException, SQLException;
+
+		abstract void finish() throws IOException;
+
+		@Override
+		public void processRow(ResultSet rs) throws SQLException {
+			try {
+				if (System.currentTimeMillis() > deadline) {
+					throw new IOException("Export aborted after " + rows + " rows, it exceeded export.timeout");
+				}
+				write(rs);
+				rows++;
+			} catch (IOException e) {
+				throw new ExportException(e);
+			}
+		}
+	}
+
+	private static class CsvRowWriter extends RowWriter {
+
+		private final Writer writer;
+
+		CsvRowWriter(Writer writer) {
+			this.writer = writer;
+		}
+
+		@Override
+		void start() throws IOException {
+			for (int i = 0; i < COLUMNS.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				writer.write(COLUMNS[i]);
+			}
+			writer.write("\r\n");
+		}
+
+		@Override
+		void write(ResultSet rs) throws IOException, SQLException {
+			for (int i = 0; i < COLUMNS.length; i++) {
+				if (i > 0) {
+					writer.write(',');
+				}
+				writeField(text(rs, i + 1));
+			}
+			writer.write("\r\n");
+		}
+
+		@Override
+		void finish() throws IOException {
+			writer.flush();
+		}
+
+		private void writeField(String value) throws IOException {
+			if (value == null) {
+				return;
+			}
+			boolean quote = false;
+			for (int i = 0; i < value.length() && !quote; i++) {
+				char c = value.charAt(i);
+				quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+			}
+			if (!quote) {
+				writer.write(value);
+				return;
+			}
+			writer.write('"');
+			for (int i = 0; i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c == '"') {
+					writer.write('"');
+				}
+				writer.write(c);
+			}
+			writer.write('"');
+		}
+	}
+
+	private class JsonRowWriter extends RowWriter {
+
+		private final Writer writer;
+
+		private final JsonGenerator generator;
+
+		JsonRowWriter(Writer writer) throws IOException {
+			this.writer = writer;
+			this.generator = jsonFactory.createGenerator(writer);
+			this.generator.setRootValueSeparator(null);
+		}
+
+		@Override
+		void write(ResultSet rs) throws IOException, SQLException {
+			generator.writeStartObject();
+			for (int i = 0; i < COLUMNS.length; i++) {
+				String value = text(rs, i + 1);
+				if (value == null) {
+					generator.writeNullField(COLUMNS[i]);
+				} else {
+					generator.writeStringField(COLUMNS[i], value);
+				}
+			}
+			generator.writeEndObject();
+			generator.flush();
+			writer.write('\n');
+		}
+
+		@Override
+		void finish() throws IOException {
+			generator.flush();
+			writer.flush();
+		}
+	}
+
+	@SuppressWarnings("serial")
+	private static class ExportException extends RuntimeException {
+
+		ExportException(IOException cause) {
+			super(cause);
+		}
+
+		@Override
+		public synchronized IOException getCause() {
+			return (IOException) super.getCause();
+		}
+	}
+
+}
@@ -1,7 +1,104 @@
 package com.emc.cloudfoundry.notification.quota;
 
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+
+import org.joda.time.DateTime;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
 import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.transaction.annotation.Transactional;
 
 public interface NotificationRepository extends CrudRepository<Notification, NotificationPk> {
 
+	/**
+	 * Reads only the last sent times of notifications sent before the cutoff, oldest first, so a retention batch can
+	 * be bounded without loading messages.
+	 */
+	@Query("select n.lastSent from Notification n where n.lastSent < :cutoff order by n.lastSent")
+	List<DateTime> findLastSentBefore(@Param("cutoff") DateTime cutoff, Pageable pageable);
+
+	/**
+	 * Copies the notifications last sent at or before the given time to the archive in a single statement.
+	 */
+	@Modifying
+	@Transactional
+	@Query(value = "insert into notifications_archive (orgGuId, userGuid, email, message, lastSent, archived) "
+			+ "select orgGuId, userGuid, email, message, lastSent, :archived from notifications "
+			+ "where lastSent <= :upTo", nativeQuery = true)
+	int archiveSentUpTo(@Param("upTo") Date upTo, @Param("archived") Date archived);
+
+	/**
+	 * Deletes the notifications last sent at or before the given time in a single statement.
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from Notification n where n.lastSent <= :upTo")
+	int deleteSentUpTo(@Param("upTo") DateTime upTo);
+
+	/**
+	 * Lowers the band of the notifications of the given orgs to the given band in a single statement, for those
+	 * recorded at a higher one, incrementing their version.
+	 * @return the number of notifications updated
+	 */
+	@Modifying
+	@Transactional
+	@Query("update Notification n set n.band = :band, n.version = n.version + 1 "
+			+ "where n.notificationId.orgGuId in :orgGuids and n.band > :band")
+	int lowerBands(@Param("orgGuids") Collection<String> orgGuids, @Param("band") int band);
+
+	/**
+	 * Claims the first notification of an org manager by inserting it with version 0.
+	 * @throws org.springframework.dao.DataIntegrityViolationException if another thread or instance inserted it first
+	 */
+	@Modifying
+	@Transactional
+	@Query(value = "insert into notifications (orgGuId, userGuid, email, message, lastSent, band, version) "
+			+ "values (:orgGuid, :userGuid, :email, :message, :lastSent, :band, 0)", nativeQuery = true)
+	int insertClaimed(@Param("orgGuid") String orgGuid, @Param("userGuid") String userGuid,
+			@Param("email") String email, @Param("message") byte[] message, @Param("lastSent") Date lastSent,
+			@Param("band") int band);
+
+	/**
+	 * Claims a notification that was found due at the given version, incrementing the version.
+	 * @return 1 if claimed, 0 if another thread or instance claimed it since it was read
+	 */
+	@Modifying
+	@Transactional
+	@Query("update Notification n set n.email = :email, n.message = :message, n.lastSent = :lastSent, n.band = :band, "
+			+ "n.version = n.version + 1 where n.notificationId.orgGuId = :orgGuid "
+			+ "and n.notificationId.userGuid = :userGuid and n.version = :version")
+	int updateClaimed(@Param("orgGuid") String orgGuid, @Param("userGuid") String userGuid,
+			@Param("version") long version, @Param("email") String email, @Param("message") byte[] message,
+			@Param("lastSent") DateTime lastSent, @Param("band") int band);
+
+	/**
+	 * Sets the last sent time and band of a notification that is still at the given version, incrementing the
+	 * version; used to hand back a claim whose mail could not be delivered.
+	 * The email and message columns are left alone, so a handed back claim keeps the address and text it was claimed
+	 * with until the notification is claimed and sent again.
+	 * @return 1 if updated, 0 if the notification was claimed since it was read
+	 */
+	@Modifying
+	@Transactional
+	@Query("update Notification n set n.lastSent = :lastSent, n.band = :band, n.version = n.version + 1 "
+			+ "where n.notificationId.orgGuId = :orgGuid and n.notificationId.userGuid = :userGuid "
+			+ "and n.version = :version")
+	int updateIfUnchanged(@Param("orgGuid") String orgGuid, @Param("userGuid") String userGuid,
+			@Param("version") long version, @Param("lastSent") DateTime lastSent, @Param("band") int band);
+
+	/**
+	 * Deletes a notification that is still at the given version; used to hand back the claim of a first
+	 * notification whose mail could not be delivered.
+	 */
+	@Modifying
+	@Transactional
+	@Query("delete from Notification n where n.notificationId.orgGuId = :orgGuid "
+			+ "and n.notificationId.userGuid = :userGuid and n.version = :version")
+	int deleteIfUnchanged(@Param("orgGuid") String orgGuid, @Param("userGuid") String userGuid,
+			@Param("version") long version);
+
 }
@@ -0,0 +1,139 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.joda.time.DateTime;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.context.annotation.Lazy;
+import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+/**
+ * Removes notifications that have not been sent for longer than the retention window, so the notifications table
+ * stays as large as the set of recently notified org managers rather than growing forever.
+ * Rows are either deleted or moved to the notifications archive, in small batches that each run in their own
+ * short transaction, oldest first along the lastSent index.
+ * Throughput is logged after every run and published as retention.* metrics.
+ */
+@Component
+@Profile("!" + MappedStoreConfig.MAPPED_PROFILE)
+public class NotificationRetentionJob implements PublicMetrics {
+
+	public enum Mode {
+		DELETE, ARCHIVE
+	}
+
+	@Autowired
+	@Lazy
+	private NotificationRepository notificationRepository;
+
+	private final TransactionTemplate transactionTemplate;
+
+	private final int retentionDays;
+
+	private final int batchSize;
+
+	private final long batchPause;
+
+	private final Mode mode;
+
+	private final AtomicLong totalRows = new AtomicLong();
+
+	private final AtomicLong totalBatches = new AtomicLong();
+
+	private volatile long lastRunRows;
+
+	private volatile long lastRunMillis;
+
+	@Autowired
+	public NotificationRetentionJob(Environment environment, @Lazy PlatformTransactionManager transactionManager) {
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.retentionDays = environment.getProperty("retention.days", Integer.class, 90);
+		this.batchSize = environment.getProperty("retention.batchSize", Integer.class, 500);
+		this.batchPause = environment.getProperty("retention.batchPause", Long.class, 100L);
+		this.mode = Mode.valueOf(environment.getProperty("retention.mode", "delete").toUpperCase());
+		if (retentionDays <= 0 || batchSize <= 0) {
+			throw new NotificationException("retention.days and retention.batchSize must be positive");
+		}
+	}
+
+	@Scheduled(initialDelayString = "${retention.initialDelay:60000}", fixedDelayString = "${retention.frequency:3600000}")
+	public void purge() {
+		final DateTime cutoff = DateTime.now().minusDays(retentionDays);
+		long start = System.currentTimeMillis();
+		long rows = 0;
+		int removed;
+		do {
+			removed = transactionTemplate.execute(new TransactionCallback<Integer>() {
+				@Override
+				public Integer doInTransaction(TransactionStatus status) {
+					return purgeBatch(cutoff);
+				}
+			});
+			rows += removed;
+			totalBatches.incrementAndGet();
+			if (removed >= batchSize && !pause()) {
+				break;
+			}
+		} while (removed >= batchSize);
+		long elapsed = Math.max(System.currentTimeMillis() - start, 1);
+		totalRows.addAndGet(rows);
+		lastRunRows = rows;
+		lastRunMillis = elapsed;
+		System.out.println("Retention " + mode.name().toLowerCase() + "d " + rows + " notifications last sent before "
+				+ cutoff + " in " + elapsed + "ms (" + (rows * 1000 / elapsed) + " rows/s)");
+	}
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		metrics.add(new Metric<Long>("retention.rows", totalRows.get()));
+		metrics.add(new Metric<Long>("retention.batches", totalBatches.get()));
+		metrics.add(new Metric<Long>("retention.lastRun.rows", lastRunRows));
+		metrics.add(new Metric<Long>("retention.lastRun.millis", lastRunMillis));
+		metrics.add(new Metric<Long>("retention.lastRun.rowsPerSecond",
+				lastRunMillis == 0 ? 0 : lastRunRows * 1000 / lastRunMillis));
+		return metrics;
+	}
+
+	// internal helpers
+
+	/**
+	 * Bounds the batch by the last sent time of its oldest batchSize rows, read from the index alone, and moves
+	 * everything up to that time with bulk statements. Rows sharing the boundary time all go in the same batch.
+	 */
+	private int purgeBatch(DateTime cutoff) {
+		List<DateTime> expired = notificationRepository.findLastSentBefore(cutoff, new PageRequest(0, batchSize));
+		if (expired.isEmpty()) {
+			return 0;
+		}
+		DateTime upTo = expired.get(expired.size() - 1);
+		if (mode == Mode.ARCHIVE) {
+			notificationRepository.archiveSentUpTo(upTo.toDate(), DateTime.now().toDate());
+		}
+		return notificationRepository.deleteSentUpTo(upTo);
+	}
+
+	private boolean pause() {
+		try {
+			Thread.sleep(batchPause);
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+}
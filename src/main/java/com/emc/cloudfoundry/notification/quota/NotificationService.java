@@ -1,9 +1,22 @@
 package com.emc.cloudfoundry.notification.quota;
 
 import java.util.List;
+import java.util.Map;
 
 public interface NotificationService {
 
-	void sendNotification(String orgGuid, String userGuid, String from, List<String> to, String messageBody);
+	/**
+	 * Sends the notification unless the user was already notified for the same or a higher usage band of the org
+	 * within notification.maxInterval hours.
+	 */
+	void sendNotification(String orgGuid, String userGuid, String from, List<String> to, String messageBody, int band);
+
+	/**
+	 * Lowers the band recorded for the notifications of each org to its recovered band, if that is lower, so the
+	 * org is notified again once its usage climbs back. A recovered band of 0 resets the org. A quota check only
+	 * passes the orgs whose band dropped since, see {@link RecordedBands}.
+	 * @param recoveredBands the {@link UsageBands#recoveredBand(int) recovered band} by org guid
+	 */
+	void recordRecovery(Map<String, Integer> recoveredBands);
 
 }
@@ -0,0 +1,49 @@
+package com.emc.cloudfoundry.notification.quota;
+
+/**
+ * The result of evaluating a single org on demand.
+ */
+public class OrgEvaluation {
+
+	private final OrgUsage usage;
+
+	private final int band;
+
+	private final boolean dispatched;
+
+	private final long evaluated;
+
+	public OrgEvaluation(OrgUsage usage, int band, boolean dispatched, long evaluated) {
+		this.usage = usage;
+		this.band = band;
+		this.dispatched = dispatched;
+		this.evaluated = evaluated;
+	}
+
+	public OrgUsage getUsage() {
+		return usage;
+	}
+
+	/**
+	 * The {@link UsageBands usage band} of the org, 0 when it is below the threshold.
+	 */
+	public int getBand() {
+		return band;
+	}
+
+	public boolean isOverThreshold() {
+		return band > 0;
+	}
+
+	/**
+	 * Whether the managers were handed to the notification service, which only mails them when it is due.
+	 */
+	public boolean isDispatched() {
+		return dispatched;
+	}
+
+	public long getEvaluated() {
+		return evaluated;
+	}
+
+}
@@ -0,0 +1,65 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.Endpoint;
+import org.springframework.boot.actuate.endpoint.mvc.MvcEndpoint;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.core.env.Environment;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RequestParam;
+
+/**
+ * Evaluates a single org against its quota right away through the {@link OrgEvaluator}; with dispatch=true its
+ * managers are notified if that is due. Every evaluation calls the Cloud Controller, so like the
+ * {@link NotificationHistoryEndpoint} this is a management endpoint that, unless endpoints.evaluation.sensitive=false,
+ * requires the management.security.role; endpoints.evaluation.enabled=false removes it.
+ */
+@Component
+@ConditionalOnProperty(prefix = "endpoints.evaluation", name = "enabled", matchIfMissing = true)
+public class OrgEvaluationEndpoint implements MvcEndpoint {
+
+	@Autowired
+	private OrgEvaluator orgEvaluator;
+
+	private final String path;
+
+	private final boolean sensitive;
+
+	@Autowired
+	public OrgEvaluationEndpoint(Environment environment) {
+		this.path = environment.getProperty("endpoints.evaluation.path", "/usage/evaluations");
+		this.sensitive = environment.getProperty("endpoints.evaluation.sensitive", Boolean.class, true);
+	}
+
+	@RequestMapping(value = "/{guid}", method = RequestMethod.POST)
+	public ResponseEntity<OrgEvaluation> evaluate(@PathVariable String guid,
+			@RequestParam(value = "dispatch", defaultValue = "false") boolean dispatch) {
+		OrgEvaluation evaluation = orgEvaluator.evaluate(guid, dispatch);
+		if (evaluation == null) {
+			return new ResponseEntity<OrgEvaluation>(HttpStatus.NOT_FOUND);
+		}
+		return new ResponseEntity<OrgEvaluation>(evaluation, HttpStatus.OK);
+	}
+
+	@Override
+	public String getPath() {
+		return path;
+	}
+
+	@Override
+	public boolean isSensitive() {
+		return sensitive;
+	}
+
+	@Override
+	@SuppressWarnings("rawtypes")
+	public Class<? extends Endpoint> getEndpointType() {
+		return null;
+	}
+
+}
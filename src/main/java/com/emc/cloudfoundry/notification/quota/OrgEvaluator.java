@@ -0,0 +1,141 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+import org.cloudfoundry.client.lib.domain.CloudOrganization;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Evaluates single orgs on demand. Concurrent requests for the same org share one evaluation, run on the thread of
+ * the first request, and a result is reused for evaluation.cacheTtl milliseconds. Orgs are located through the
+ * latest {@link UsageSnapshot}; an org no quota check has seen yet is searched for on every foundation. That lists
+ * the orgs of every foundation, so a guid no foundation has is remembered as unknown for evaluation.cacheTtl
+ * milliseconds too.
+ */
+@Component
+public class OrgEvaluator {
+
+	@Autowired
+	private Application application;
+
+	@Autowired
+	private Foundations foundations;
+
+	@Autowired
+	private UsageSnapshots usageSnapshots;
+
+	private final long cacheTtl;
+
+	private final ConcurrentMap<String, FutureTask<OrgEvaluation>> inFlight = new ConcurrentHashMap<String, FutureTask<OrgEvaluation>>();
+
+	private final ConcurrentMap<String, OrgEvaluation> results = new ConcurrentHashMap<String, OrgEvaluation>();
+
+	private final ConcurrentMap<String, Long> unknown = new ConcurrentHashMap<String, Long>();
+
+	@Autowired
+	public OrgEvaluator(Environment environment) {
+		this(environment.getProperty("evaluation.cacheTtl", Long.class, 5000L));
+	}
+
+	public OrgEvaluator(long cacheTtl) {
+		this.cacheTtl = cacheTtl;
+	}
+
+	/**
+	 * Evaluates the org with the given guid, notifying its managers when dispatch is set.
+	 * @return the evaluation, null if no foundation has an org with a quota and that guid
+	 */
+	public OrgEvaluation evaluate(final String orgGuid, final boolean dispatch) {
+		final String key = dispatch ? orgGuid + "/dispatch" : orgGuid;
+		OrgEvaluation cached = results.get(key);
+		if (cached != null && cached.getEvaluated() + cacheTtl > System.currentTimeMillis()) {
+			return cached;
+		}
+		Long missed = unknown.get(orgGuid);
+		if (missed != null && missed + cacheTtl > System.currentTimeMillis()) {
+			return null;
+		}
+		FutureTask<OrgEvaluation> evaluation = new FutureTask<OrgEvaluation>(new Callable<OrgEvaluation>() {
+			@Override
+			public OrgEvaluation call() {
+				OrgEvaluation result = evaluateNow(orgGuid, dispatch);
+				if (result != null) {
+					results.put(key, result);
+					unknown.remove(orgGuid);
+				} else {
+					rememberUnknown(orgGuid);
+				}
+				return result;
+			}
+		});
+		FutureTask<OrgEvaluation> running = inFlight.putIfAbsent(key, evaluation);
+		if (running == null) {
+			running = evaluation;
+			try {
+				evaluation.run();
+			} finally {
+				inFlight.remove(key, evaluation);
+			}
+		}
+		try {
+			return running.get();
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new NotificationException("Evaluating org " + orgGuid + " failed", e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new NotificationException("Interrupted while evaluating org " + orgGuid, e);
+		}
+	}
+
+	/**
+	 * Remembers a guid no foundation has, first dropping the expired ones once there are many, so made up guids do
+	 * not pile up.
+	 */
+	private void rememberUnknown(String orgGuid) {
+		long now = System.currentTimeMillis();
+		if (unknown.size() >= 1024) {
+			for (Iterator<Long> missed = unknown.values().iterator(); missed.hasNext();) {
+				if (missed.next() + cacheTtl <= now) {
+					missed.remove();
+				}
+			}
+		}
+		unknown.put(orgGuid, now);
+	}
+
+	protected OrgEvaluation evaluateNow(String orgGuid, boolean dispatch) {
+		OrgUsage known = usageSnapshots.get().getOrg(orgGuid);
+		if (known != null) {
+			Foundation foundation = foundations.get(known.getFoundation());
+			if (foundation != null) {
+				OrgEvaluation evaluation = application.evaluateOrg(foundation, orgGuid, known.getName(),
+						known.getSpaces(), dispatch);
+				if (evaluation != null) {
+					return evaluation;
+				}
+			}
+		}
+		// not seen by a quota check yet, or renamed since
+		for (Foundation foundation : foundations) {
+			for (CloudOrganization org : foundation.listOrganizations()) {
+				if (org.getMeta().getGuid().toString().equals(orgGuid)) {
+					return application.evaluateOrg(foundation, orgGuid, org.getName(),
+							Collections.<SpaceUsage> emptyList(), dispatch);
+				}
+			}
+		}
+		return null;
+	}
+
+}
@@ -0,0 +1,45 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A manager of an org as found in UAA. The email is null for users without a primary email, who are not notified.
+ */
+public class OrgOwner {
+
+	private final String id;
+
+	private final String email;
+
+	private final String givenName;
+
+	private final List<String> emails;
+
+	public OrgOwner(String id, String email, String givenName) {
+		this.id = id;
+		this.email = email;
+		this.givenName = givenName;
+		this.emails = email == null ? Collections.<String> emptyList() : Collections.singletonList(email);
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getEmail() {
+		return email;
+	}
+
+	public String getGivenName() {
+		return givenName;
+	}
+
+	/**
+	 * The email as the recipient list of a notification, created once rather than for every notification.
+	 */
+	public List<String> getEmails() {
+		return emails;
+	}
+
+}
@@ -0,0 +1,108 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Caches the managers of every org for owners.cacheTtl milliseconds, so an org that stays over its quota is not
+ * looked up in the Cloud Controller and UAA again on every cycle. Entries keep the time they were looked up, also
+ * when they are restored from a {@link UsageSnapshotStore}, and are looked up again once they are older than that.
+ */
+@Component
+public class OrgOwners {
+
+	private final ConcurrentMap<String, Entry> ownersByOrgGuid = new ConcurrentHashMap<String, Entry>();
+
+	private final long ttl;
+
+	private final AtomicLong changes = new AtomicLong();
+
+	@Autowired
+	public OrgOwners(Environment environment) {
+		this(environment.getProperty("owners.cacheTtl", Long.class, 900000L));
+	}
+
+	public OrgOwners(long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Returns the cached managers of the given org, null if they need to be looked up.
+	 */
+	public List<OrgOwner> get(String orgGuid) {
+		Entry entry = ownersByOrgGuid.get(orgGuid);
+		return entry == null || isExpired(entry, System.currentTimeMillis()) ? null : entry.owners;
+	}
+
+	public void put(String orgGuid, List<OrgOwner> owners) {
+		put(orgGuid, new Entry(System.currentTimeMillis(), owners));
+	}
+
+	public void put(String orgGuid, Entry entry) {
+		ownersByOrgGuid.put(orgGuid, entry);
+		changes.incrementAndGet();
+	}
+
+	/**
+	 * How often managers were put so far, to tell whether the cache changed; dropping expired entries does not count.
+	 */
+	public long getChanges() {
+		return changes.get();
+	}
+
+	/**
+	 * Returns the entries that have not expired yet by org guid, dropping the expired ones.
+	 */
+	public Map<String, Entry> entries() {
+		long now = System.currentTimeMillis();
+		Map<String, Entry> entries = new HashMap<String, Entry>();
+		for (Iterator<Map.Entry<String, Entry>> i = ownersByOrgGuid.entrySet().iterator(); i.hasNext();) {
+			Map.Entry<String, Entry> entry = i.next();
+			if (isExpired(entry.getValue(), now)) {
+				i.remove();
+			} else {
+				entries.put(entry.getKey(), entry.getValue());
+			}
+		}
+		return entries;
+	}
+
+	private boolean isExpired(Entry entry, long now) {
+		return ttl <= 0 || entry.lookedUp + ttl < now;
+	}
+
+	/**
+	 * The managers of an org and when they were looked up.
+	 */
+	public static class Entry {
+
+		private final long lookedUp;
+
+		private final List<OrgOwner> owners;
+
+		public Entry(long lookedUp, List<OrgOwner> owners) {
+			this.lookedUp = lookedUp;
+			this.owners = Collections.unmodifiableList(new ArrayList<OrgOwner>(owners));
+		}
+
+		public long getLookedUp() {
+			return lookedUp;
+		}
+
+		public List<OrgOwner> getOwners() {
+			return owners;
+		}
+	}
+
+}
@@ -0,0 +1,107 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The memory used by an org and its spaces against the org's quota, as measured by a quota check.
+ */
+public class OrgUsage {
+
+	private final String foundation;
+
+	private final String guid;
+
+	private final String name;
+
+	private final int memoryUsed;
+
+	private final int memoryLimit;
+
+	private final int percentUsed;
+
+	private final List<SpaceUsage> spaces;
+
+	public OrgUsage(String foundation, String guid, String name, int memoryUsed, int memoryLimit, int percentUsed,
+			List<SpaceUsage> spaces) {
+		this.foundation = foundation;
+		this.guid = guid;
+		this.name = name;
+		this.memoryUsed = memoryUsed;
+		this.memoryLimit = memoryLimit;
+		this.percentUsed = percentUsed;
+		this.spaces = Collections.unmodifiableList(new ArrayList<SpaceUsage>(spaces));
+	}
+
+	public String getFoundation() {
+		return foundation;
+	}
+
+	public String getGuid() {
+		return guid;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	public int getMemoryLimit() {
+		return memoryLimit;
+	}
+
+	public int getPercentUsed() {
+		return percentUsed;
+	}
+
+	public List<SpaceUsage> getSpaces() {
+		return spaces;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((foundation == null) ? 0 : foundation.hashCode());
+		result = prime * result + ((guid == null) ? 0 : guid.hashCode());
+		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + memoryUsed;
+		result = prime * result + memoryLimit;
+		result = prime * result + percentUsed;
+		result = prime * result + spaces.hashCode();
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		OrgUsage other = (OrgUsage) obj;
+		if (foundation == null) {
+			if (other.foundation != null)
+				return false;
+		} else if (!foundation.equals(other.foundation))
+			return false;
+		if (guid == null) {
+			if (other.guid != null)
+				return false;
+		} else if (!guid.equals(other.guid))
+			return false;
+		if (name == null) {
+			if (other.name != null)
+				return false;
+		} else if (!name.equals(other.name))
+			return false;
+		return memoryUsed == other.memoryUsed && memoryLimit == other.memoryLimit && percentUsed == other.percentUsed
+				&& spaces.equals(other.spaces);
+	}
+
+}
@@ -0,0 +1,82 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+
+import javax.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * The {@link StageExecutor}s of the quota check, one per {@link PipelineStage}, sized by the
+ * pipeline.{stage}.threads, pipeline.{stage}.queueCapacity and pipeline.{stage}.policy properties.
+ * A foundation has at most pipeline.measure.perFoundation orgs on the measure stage at a time, half its threads
+ * by default, so a foundation whose usage calls are slow cannot take all of them from the others.
+ * Stages are shut down in order, each waiting up to pipeline.shutdownTimeout milliseconds for its queued tasks, so
+ * work that made it past discovery is still delivered.
+ */
+@Component
+public class Pipeline {
+
+	private final Map<PipelineStage, StageExecutor> stages = new EnumMap<PipelineStage, StageExecutor>(
+			PipelineStage.class);
+
+	private final long shutdownTimeout;
+
+	private final int measureSlotsPerFoundation;
+
+	@Autowired
+	public Pipeline(Environment environment) {
+		for (PipelineStage stage : PipelineStage.values()) {
+			String prefix = "pipeline." + stage.getKey() + ".";
+			stages.put(stage, new StageExecutor(stage.getKey(),
+					environment.getProperty(prefix + "threads", Integer.class, stage.getDefaultThreads()),
+					environment.getProperty(prefix + "queueCapacity", Integer.class, stage.getDefaultQueueCapacity()),
+					environment.getProperty(prefix + "policy", StageExecutor.Policy.class, stage.getDefaultPolicy())));
+		}
+		this.shutdownTimeout = environment.getProperty("pipeline.shutdownTimeout", Long.class, 10000L);
+		this.measureSlotsPerFoundation = environment.getProperty("pipeline.measure.perFoundation", Integer.class,
+				Math.max(1, stages.get(PipelineStage.MEASURE).getThreads() / 2));
+		if (measureSlotsPerFoundation < 1) {
+			throw new NotificationException("pipeline.measure.perFoundation must be positive");
+		}
+	}
+
+	public StageExecutor get(PipelineStage stage) {
+		return stages.get(stage);
+	}
+
+	/**
+	 * Runs the task on the given stage, see {@link StageExecutor#submit}.
+	 */
+	public boolean submit(PipelineStage stage, Runnable task) {
+		return stages.get(stage).submit(task);
+	}
+
+	/**
+	 * How many orgs of one foundation may be queued or measured on the measure stage at a time.
+	 */
+	public int getMeasureSlotsPerFoundation() {
+		return measureSlotsPerFoundation;
+	}
+
+	public Collection<StageExecutor> getStages() {
+		return Collections.unmodifiableCollection(stages.values());
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		// nothing new is discovered, what is in flight drains downstream
+		stages.get(PipelineStage.DISCOVER).shutdownNow();
+		for (StageExecutor stage : stages.values()) {
+			if (!stage.shutdown(shutdownTimeout)) {
+				stage.shutdownNow();
+			}
+		}
+	}
+
+}
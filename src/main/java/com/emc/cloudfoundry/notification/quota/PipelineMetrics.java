@@ -0,0 +1,36 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the queue depth, active threads, rejections and completed tasks of every {@link PipelineStage} as
+ * pipeline.{stage}.* metrics.
+ */
+@Component
+public class PipelineMetrics implements PublicMetrics {
+
+	@Autowired
+	private Pipeline pipeline;
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		for (StageExecutor stage : pipeline.getStages()) {
+			String prefix = "pipeline." + stage.getName() + ".";
+			metrics.add(new Metric<Integer>(prefix + "threads", stage.getThreads()));
+			metrics.add(new Metric<Integer>(prefix + "queueDepth", stage.getQueueDepth()));
+			metrics.add(new Metric<Integer>(prefix + "activeThreads", stage.getActiveThreads()));
+			metrics.add(new Metric<Long>(prefix + "rejections", stage.getRejections()));
+			metrics.add(new Metric<Long>(prefix + "completed", stage.getCompleted()));
+		}
+		return metrics;
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.emc.cloudfoundry.notification.quota;
+
+/**
+ * The stages a quota check is split into, in the order an org passes through them. Each stage runs on its own
+ * {@link StageExecutor}, configured by the pipeline.{key}.* properties.
+ */
+public enum PipelineStage {
+
+	DISCOVER("discover", 4, 16, StageExecutor.Policy.DISCARD),
+	MEASURE("measure", 8, 256, StageExecutor.Policy.BLOCK),
+	RESOLVE_OWNERS("owners", 4, 256, StageExecutor.Policy.BLOCK),
+	RENDER("render", 2, 256, StageExecutor.Policy.BLOCK),
+	DELIVER("deliver", 4, 128, StageExecutor.Policy.BLOCK);
+
+	private final String key;
+
+	private final int defaultThreads;
+
+	private final int defaultQueueCapacity;
+
+	private final StageExecutor.Policy defaultPolicy;
+
+	private PipelineStage(String key, int defaultThreads, int defaultQueueCapacity,
+			StageExecutor.Policy defaultPolicy) {
+		this.key = key;
+		this.defaultThreads = defaultThreads;
+		this.defaultQueueCapacity = defaultQueueCapacity;
+		this.defaultPolicy = defaultPolicy;
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+	public int getDefaultThreads() {
+		return defaultThreads;
+	}
+
+	public int getDefaultQueueCapacity() {
+		return defaultQueueCapacity;
+	}
+
+	public StageExecutor.Policy getDefaultPolicy() {
+		return defaultPolicy;
+	}
+
+}
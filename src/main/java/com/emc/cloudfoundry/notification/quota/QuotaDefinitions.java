@@ -0,0 +1,84 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.domain.CloudQuota;
+
+/**
+ * Caches the quota definitions of a foundation by guid. A foundation has only a handful of them, so they are all
+ * fetched at once and refreshed every quotas.refreshInterval milliseconds. A guid that is not in the cache, e.g.
+ * of a quota definition created since, triggers an early refresh, at most once per MISS_REFRESH_INTERVAL.
+ */
+public class QuotaDefinitions {
+
+	private static final long MISS_REFRESH_INTERVAL = 10000;
+
+	private final long refreshInterval;
+
+	private Map<String, CloudQuota> quotasByGuid = Collections.emptyMap();
+
+	private long refreshed;
+
+	private boolean loaded;
+
+	private long refreshes;
+
+	public QuotaDefinitions(long refreshInterval) {
+		this.refreshInterval = refreshInterval;
+	}
+
+	/**
+	 * Returns the quota definition with the given guid, null if the foundation has none.
+	 */
+	public synchronized CloudQuota get(CloudFoundryOperations client, String guid) {
+		long now = System.currentTimeMillis();
+		refreshIfStale(client, now);
+		CloudQuota quota = quotasByGuid.get(guid);
+		if (quota == null && now - refreshed >= Math.min(refreshInterval, MISS_REFRESH_INTERVAL)) {
+			refresh(client, now);
+			quota = quotasByGuid.get(guid);
+		}
+		return quota;
+	}
+
+	/**
+	 * Fetches the quota definitions again if they are older than the refresh interval.
+	 * @return how often they were fetched so far; while it stays the same, so does every quota definition returned
+	 */
+	public synchronized long refreshIfStale(CloudFoundryOperations client) {
+		refreshIfStale(client, System.currentTimeMillis());
+		return refreshes;
+	}
+
+	/**
+	 * Makes the next lookup fetch the quota definitions again.
+	 */
+	public synchronized void invalidate() {
+		loaded = false;
+	}
+
+	public synchronized int size() {
+		return quotasByGuid.size();
+	}
+
+	private void refreshIfStale(CloudFoundryOperations client, long now) {
+		if (!loaded || now - refreshed >= refreshInterval) {
+			refresh(client, now);
+		}
+	}
+
+	private void refresh(CloudFoundryOperations client, long now) {
+		Map<String, CloudQuota> quotasByGuid = new HashMap<String, CloudQuota>();
+		for (CloudQuota quota : client.getQuotas()) {
+			quotasByGuid.put(quota.getMeta().getGuid().toString(), quota);
+		}
+		this.quotasByGuid = quotasByGuid;
+		this.refreshed = now;
+		this.loaded = true;
+		this.refreshes++;
+	}
+
+}
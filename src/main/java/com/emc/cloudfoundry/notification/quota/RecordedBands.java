@@ -0,0 +1,47 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps, for every org, the highest band its notifications may be recorded at, so a quota check only asks the
+ * {@link NotificationService} to record the recovery of orgs whose band actually dropped. The bound is raised when an
+ * org is handed on to be notified and set to the recovered band once its recovery was recorded. An org not seen
+ * since startup has no bound yet, so its recovery is recorded once.
+ */
+public class RecordedBands {
+
+	private final Map<String, Integer> bandsByOrgGuid = new HashMap<String, Integer>();
+
+	/**
+	 * Notes that the managers of the org may be notified for the given band.
+	 */
+	public synchronized void notifying(String orgGuid, int band) {
+		Integer recorded = bandsByOrgGuid.get(orgGuid);
+		if (recorded != null && recorded < band) {
+			bandsByOrgGuid.put(orgGuid, band);
+		}
+	}
+
+	/**
+	 * Returns whether the org's recovered band is below the band its notifications may be recorded at, and if so
+	 * takes it as the org's band from now on, expecting the caller to record the recovery.
+	 */
+	public synchronized boolean recovering(String orgGuid, int recoveredBand) {
+		Integer recorded = bandsByOrgGuid.get(orgGuid);
+		if (recorded != null && recoveredBand >= recorded) {
+			return false;
+		}
+		bandsByOrgGuid.put(orgGuid, recoveredBand);
+		return true;
+	}
+
+	/**
+	 * Drops the bands of the given orgs, so their recovery is recorded again, e.g. after recording it failed.
+	 */
+	public synchronized void forget(Collection<String> orgGuids) {
+		bandsByOrgGuid.keySet().removeAll(orgGuids);
+	}
+
+}
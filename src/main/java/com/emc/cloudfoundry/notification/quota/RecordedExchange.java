@@ -0,0 +1,79 @@
+package com.emc.cloudfoundry.notification.quota;
+
+/**
+ * A request to the Cloud Controller and its response as captured by the {@link TrafficRecorder}.
+ */
+public class RecordedExchange {
+
+	private final long started;
+
+	private final long durationMicros;
+
+	private final String method;
+
+	private final String path;
+
+	private final byte[] requestBody;
+
+	private final int status;
+
+	private final String contentType;
+
+	private final byte[] responseBody;
+
+	/**
+	 * @param started the milliseconds since the recording was started
+	 * @param path the path and query of the request, without the target
+	 */
+	public RecordedExchange(long started, long durationMicros, String method, String path, byte[] requestBody,
+			int status, String contentType, byte[] responseBody) {
+		this.started = started;
+		this.durationMicros = durationMicros;
+		this.method = method;
+		this.path = path;
+		this.requestBody = requestBody;
+		this.status = status;
+		this.contentType = contentType;
+		this.responseBody = responseBody;
+	}
+
+	public long getStarted() {
+		return started;
+	}
+
+	public long getDurationMicros() {
+		return durationMicros;
+	}
+
+	public String getMethod() {
+		return method;
+	}
+
+	public String getPath() {
+		return path;
+	}
+
+	public byte[] getRequestBody() {
+		return requestBody;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getContentType() {
+		return contentType;
+	}
+
+	public byte[] getResponseBody() {
+		return responseBody;
+	}
+
+	/**
+	 * The key the replay server matches requests by.
+	 */
+	public String getKey() {
+		return method + " " + path;
+	}
+
+}
@@ -1,19 +1,44 @@
 package com.emc.cloudfoundry.notification.quota;
 
+import java.util.List;
+
+import org.apache.commons.dbcp.BasicDataSource;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.cloud.config.java.AbstractCloudConfig;
+import org.springframework.cloud.service.ServiceInfo;
+import org.springframework.cloud.service.common.RelationalServiceInfo;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Profile;
+import org.springframework.core.env.Environment;
 
 import javax.sql.DataSource;
 
+/**
+ * Connects to the bound MySQL service through an {@link InstrumentedDataSource} rather than the pool the connector
+ * would create, so the pool can be sized against the connection limit of the service plan with
+ * datasource.maxActive, 4 by default like the connector's. Prepared statements are prepared on the server, as the
+ * pool keeps them per connection anyway.
+ */
 @Configuration
 @Profile({"mysql-cloud"})
 public class RelationalCloudDataSourceConfig extends AbstractCloudConfig {
 
-    @Bean
+    @Autowired
+    private Environment environment;
+
+    @Bean(destroyMethod = "close")
     public DataSource dataSource() {
-        return connectionFactory().dataSource();
+        List<ServiceInfo> serviceInfos = cloud().getServiceInfos(DataSource.class);
+        if (serviceInfos.size() != 1 || !(serviceInfos.get(0) instanceof RelationalServiceInfo)) {
+            throw new NotificationException("Expected a single relational database service, found " + serviceInfos.size()
+                    + " database services");
+        }
+        BasicDataSource dataSource = new InstrumentedDataSource(environment, 4);
+        dataSource.setUrl(((RelationalServiceInfo) serviceInfos.get(0)).getJdbcUrl());
+        dataSource.setDriverClassName("com.mysql.jdbc.Driver");
+        dataSource.addConnectionProperty("useServerPrepStmts", "true");
+        return dataSource;
     }
 
 }
@@ -0,0 +1,268 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.IOException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Caches the GET responses of a foundation's Cloud Controller by URL, so a list page that has not changed since
+ * the previous polling cycle is not parsed again.
+ * <p>
+ * A response with an ETag or Last-Modified header is kept with its body and revalidated with If-None-Match or
+ * If-Modified-Since; a 304 is answered with the cached body. The Cloud Controller v2 API sends neither for its list
+ * endpoints, so of every other response only a digest of the body is kept, to tell that it is unchanged.
+ * Either way the response carries {@link #OUTCOME_HEADER} and {@link #GENERATION_HEADER}, and a caller that parsed
+ * the body can attach the result with {@link #putParsed} and get it back with {@link #getParsed} for as long as the
+ * body stays the same. Entries are evicted least recently used first once the cached bodies and digests take more
+ * than the given number of bytes; parsed objects are not counted.
+ */
+public class ResponseCache implements ClientHttpRequestInterceptor {
+
+	public static final String OUTCOME_HEADER = "X-Response-Cache";
+
+	public static final String GENERATION_HEADER = "X-Response-Cache-Generation";
+
+	public enum Outcome {
+		MISS, REVALIDATED, UNCHANGED
+	}
+
+	// the map entry, key and the entry's fields
+	private static final int ENTRY_OVERHEAD = 200;
+
+	private final String name;
+
+	private final long maxBytes;
+
+	private final LinkedHashMap<URI, Entry> entries = new LinkedHashMap<URI, Entry>(64, 0.75f, true);
+
+	private long bytes;
+
+	private long generations;
+
+	private long misses;
+
+	private long revalidated;
+
+	private long unchanged;
+
+	private long evictions;
+
+	public ResponseCache(String name, long maxBytes) {
+		this.name = name;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+			throws IOException {
+		if (request.getMethod() != HttpMethod.GET) {
+			return execution.execute(request, body);
+		}
+		URI uri = request.getURI();
+		Entry cached = get(uri);
+		if (cached != null && cached.body != null) {
+			if (cached.etag != null) {
+				request.getHeaders().setIfNoneMatch(cached.etag);
+			}
+			if (cached.lastModified != null) {
+				request.getHeaders().set(HttpHeaders.IF_MODIFIED_SINCE, cached.lastModified);
+			}
+		}
+		ClientHttpResponse response = execution.execute(request, body);
+		if (response.getRawStatusCode() == HttpStatus.NOT_MODIFIED.value() && cached != null && cached.body != null) {
+			response.close();
+			synchronized (this) {
+				revalidated++;
+			}
+			return respond(response, HttpStatus.OK.value(), cached.headers, cached.body, Outcome.REVALIDATED, cached);
+		}
+		byte[] responseBody = StreamUtils.copyToByteArray(response.getBody());
+		if (response.getRawStatusCode() != HttpStatus.OK.value()) {
+			return new BufferedClientHttpResponse(response, responseBody);
+		}
+		Entry entry = new Entry(response.getHeaders(), responseBody, digest(responseBody));
+		Outcome outcome = put(uri, entry, cached);
+		return respond(response, response.getRawStatusCode(), response.getHeaders(), responseBody, outcome, entry);
+	}
+
+	/**
+	 * Returns what was attached to the cached response of the given URL, null if nothing was or the response
+	 * has changed since it was.
+	 * @param response the response, to check it is of the same generation as the cached one
+	 */
+	public synchronized Object getParsed(URI uri, ClientHttpResponse response) {
+		Entry entry = entries.get(uri);
+		return entry != null && entry.generation == generationOf(response) ? entry.parsed : null;
+	}
+
+	/**
+	 * Attaches the object parsed from a response to its cache entry, unless the entry has changed since.
+	 */
+	public synchronized void putParsed(URI uri, ClientHttpResponse response, Object parsed) {
+		Entry entry = entries.get(uri);
+		if (entry != null && entry.generation == generationOf(response)) {
+			entry.parsed = parsed;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * The GET requests answered by a 304, i.e. without the body being sent again.
+	 */
+	public synchronized long getHits() {
+		return revalidated;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+
+	public synchronized long getRevalidated() {
+		return revalidated;
+	}
+
+	/**
+	 * The GET requests whose body was sent again but was the same as before, so only its parsing was saved.
+	 */
+	public synchronized long getUnchanged() {
+		return unchanged;
+	}
+
+	/**
+	 * The share of GET requests answered by a 304, 0 before the first request.
+	 */
+	public synchronized double getHitRatio() {
+		return ratio(revalidated);
+	}
+
+	/**
+	 * The share of GET requests answered by an unchanged body, 0 before the first request.
+	 */
+	public synchronized double getUnchangedRatio() {
+		return ratio(unchanged);
+	}
+
+	public synchronized int getEntries() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getEvictions() {
+		return evictions;
+	}
+
+	// internal helpers
+
+	private double ratio(long outcomes) {
+		long requests = revalidated + unchanged + misses;
+		return requests == 0 ? 0 : (double) outcomes / requests;
+	}
+
+	private synchronized Entry get(URI uri) {
+		return entries.get(uri);
+	}
+
+	/**
+	 * Caches a response, keeping the generation and parsed object of the cached one if the body is the same, so
+	 * new validators are picked up.
+	 */
+	private synchronized Outcome put(URI uri, Entry entry, Entry cached) {
+		Outcome outcome;
+		if (cached != null && Arrays.equals(cached.digest, entry.digest)) {
+			unchanged++;
+			outcome = Outcome.UNCHANGED;
+			entry.generation = cached.generation;
+			entry.parsed = cached.parsed;
+		} else {
+			misses++;
+			outcome = Outcome.MISS;
+			entry.generation = ++generations;
+		}
+		Entry previous = entries.put(uri, entry);
+		if (previous != null) {
+			bytes -= previous.size();
+		}
+		bytes += entry.size();
+		Iterator<Entry> eldest = entries.values().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+			Entry evicted = eldest.next();
+			eldest.remove();
+			bytes -= evicted.size();
+			evictions++;
+		}
+		return outcome;
+	}
+
+	private ClientHttpResponse respond(ClientHttpResponse response, int status, HttpHeaders responseHeaders, byte[] body,
+			Outcome outcome, Entry entry) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.putAll(responseHeaders);
+		headers.set(OUTCOME_HEADER, outcome.name());
+		headers.set(GENERATION_HEADER, Long.toString(entry.generation));
+		return new BufferedClientHttpResponse(response, status, headers, body);
+	}
+
+	private static long generationOf(ClientHttpResponse response) {
+		String generation = response.getHeaders().getFirst(GENERATION_HEADER);
+		return generation == null ? -1 : Long.parseLong(generation);
+	}
+
+	private static byte[] digest(byte[] body) {
+		try {
+			// only used to tell a body has changed
+			return MessageDigest.getInstance("MD5").digest(body);
+		} catch (NoSuchAlgorithmException e) {
+			throw new NotificationException("MD5 is not available", e);
+		}
+	}
+
+	private static class Entry {
+
+		private final String etag;
+
+		private final String lastModified;
+
+		private final HttpHeaders headers;
+
+		private final byte[] body;
+
+		private final byte[] digest;
+
+		private long generation;
+
+		private Object parsed;
+
+		Entry(HttpHeaders headers, byte[] body, byte[] digest) {
+			this.etag = headers.getETag();
+			this.lastModified = headers.getFirst(HttpHeaders.LAST_MODIFIED);
+			boolean validated = etag != null || lastModified != null;
+			this.headers = validated ? headers : null;
+			this.body = validated ? body : null;
+			this.digest = digest;
+		}
+
+		long size() {
+			return ENTRY_OVERHEAD + digest.length + (body == null ? 0 : body.length);
+		}
+	}
+
+}
@@ -0,0 +1,47 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.endpoint.PublicMetrics;
+import org.springframework.boot.actuate.metrics.Metric;
+import org.springframework.stereotype.Component;
+
+/**
+ * Publishes the hits, misses and size of every foundation's {@link ResponseCache} as cache.{foundation}.cf.*
+ * metrics. Hits are 304s only; unchanged bodies, which were still downloaded, are published apart from them.
+ */
+@Component
+public class ResponseCacheMetrics implements PublicMetrics {
+
+	@Autowired
+	private Foundations foundations;
+
+	@Override
+	public Collection<Metric<?>> metrics() {
+		List<Metric<?>> metrics = new ArrayList<Metric<?>>();
+		for (Foundation foundation : foundations) {
+			ResponseCache cache = foundation.getResponseCache();
+			if (cache != null) {
+				addMetrics(metrics, cache);
+			}
+		}
+		return metrics;
+	}
+
+	private void addMetrics(List<Metric<?>> metrics, ResponseCache cache) {
+		String prefix = "cache." + cache.getName() + ".";
+		metrics.add(new Metric<Long>(prefix + "hits", cache.getHits()));
+		metrics.add(new Metric<Long>(prefix + "misses", cache.getMisses()));
+		metrics.add(new Metric<Long>(prefix + "revalidated", cache.getRevalidated()));
+		metrics.add(new Metric<Long>(prefix + "unchanged", cache.getUnchanged()));
+		metrics.add(new Metric<Double>(prefix + "hitRatio", cache.getHitRatio()));
+		metrics.add(new Metric<Double>(prefix + "unchangedRatio", cache.getUnchangedRatio()));
+		metrics.add(new Metric<Integer>(prefix + "entries", cache.getEntries()));
+		metrics.add(new Metric<Long>(prefix + "bytes", cache.getBytes()));
+		metrics.add(new Metric<Long>(prefix + "evictions", cache.getEvictions()));
+	}
+
+}
@@ -0,0 +1,76 @@
+package com.emc.cloudfoundry.notification.quota;
+
+/**
+ * The memory used by the applications of a space, as measured by a quota check.
+ */
+public class SpaceUsage {
+
+	private final String name;
+
+	private final int memoryUsed;
+
+	private final int percentOfOrgQuota;
+
+	private final int apps;
+
+	private final int instances;
+
+	public SpaceUsage(String name, int memoryUsed, int percentOfOrgQuota, int apps, int instances) {
+		this.name = name;
+		this.memoryUsed = memoryUsed;
+		this.percentOfOrgQuota = percentOfOrgQuota;
+		this.apps = apps;
+		this.instances = instances;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getMemoryUsed() {
+		return memoryUsed;
+	}
+
+	public int getPercentOfOrgQuota() {
+		return percentOfOrgQuota;
+	}
+
+	public int getApps() {
+		return apps;
+	}
+
+	public int getInstances() {
+		return instances;
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + ((name == null) ? 0 : name.hashCode());
+		result = prime * result + memoryUsed;
+		result = prime * result + percentOfOrgQuota;
+		result = prime * result + apps;
+		result = prime * result + instances;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		SpaceUsage other = (SpaceUsage) obj;
+		if (name == null) {
+			if (other.name != null)
+				return false;
+		} else if (!name.equals(other.name))
+			return false;
+		return memoryUsed == other.memoryUsed && percentOfOrgQuota == other.percentOfOrgQuota && apps == other.apps
+				&& instances == other.instances;
+	}
+
+}
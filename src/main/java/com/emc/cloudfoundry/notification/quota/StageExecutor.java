@@ -0,0 +1,185 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+/**
+ * Runs the tasks of one {@link PipelineStage} on a fixed number of threads with a bounded queue. When the queue is
+ * full the {@link Policy} decides: BLOCK makes the submitting thread wait for room, so a slow stage throttles the
+ * stages upstream of it; CALLER_RUNS runs the task on the submitting thread, which throttles it as well; DISCARD
+ * drops the task. Every time the queue was full counts as a rejection, whatever the policy.
+ * A stage of 0 threads runs every task on the submitting thread. A submitter waiting for room when the stage is
+ * shut down is rejected rather than left waiting for a queue no thread takes from any more.
+ * Tasks that fail are logged, they do not take their thread down.
+ */
+public class StageExecutor {
+
+	public enum Policy {
+		BLOCK, CALLER_RUNS, DISCARD
+	}
+
+	private static final Log logger = LogFactory.getLog(StageExecutor.class);
+
+	// how often a submitter waiting for room checks whether the stage was shut down
+	private static final long SHUTDOWN_CHECK_INTERVAL = 100;
+
+	private final String name;
+
+	private final int threads;
+
+	private final int queueCapacity;
+
+	private final Policy policy;
+
+	private final ThreadPoolExecutor executor;
+
+	private final AtomicLong rejections = new AtomicLong();
+
+	public StageExecutor(String name, int threads, int queueCapacity, Policy policy) {
+		if (threads < 0 || queueCapacity < 0) {
+			throw new NotificationException("The threads and queue capacity of stage '" + name
+					+ "' must not be negative");
+		}
+		this.name = name;
+		this.threads = threads;
+		this.queueCapacity = queueCapacity;
+		this.policy = policy;
+		if (threads == 0) {
+			this.executor = null;
+		} else {
+			BlockingQueue<Runnable> queue = queueCapacity == 0 ? new SynchronousQueue<Runnable>()
+					: new ArrayBlockingQueue<Runnable>(queueCapacity);
+			this.executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, queue,
+					new CustomizableThreadFactory("stage-" + name + "-"), new ThreadPoolExecutor.AbortPolicy());
+		}
+	}
+
+	/**
+	 * Runs the task on this stage, waiting for room in its queue or running it on the calling thread if the queue
+	 * is full and the policy says so.
+	 * @return false if the task was discarded
+	 * @throws RejectedExecutionException if the stage is shut down
+	 */
+	public boolean submit(Runnable task) {
+		Runnable guarded = new Guarded(task);
+		if (executor == null) {
+			guarded.run();
+			return true;
+		}
+		try {
+			executor.execute(guarded);
+			return true;
+		} catch (RejectedExecutionException e) {
+			if (executor.isShutdown()) {
+				throw e;
+			}
+		}
+		rejections.incrementAndGet();
+		switch (policy) {
+		case BLOCK:
+			// only rejected once every thread was started, so one of them takes it unless the stage shuts down
+			try {
+				while (!executor.getQueue().offer(guarded, SHUTDOWN_CHECK_INTERVAL, TimeUnit.MILLISECONDS)) {
+					if (executor.isShutdown()) {
+						throw new RejectedExecutionException("Stage '" + name + "' was shut down");
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new NotificationException("Interrupted while waiting for stage '" + name + "'", e);
+			}
+			if (executor.isShutdown() && executor.getQueue().remove(guarded)) {
+				throw new RejectedExecutionException("Stage '" + name + "' was shut down");
+			}
+			return true;
+		case CALLER_RUNS:
+			guarded.run();
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public int getThreads() {
+		return threads;
+	}
+
+	public int getQueueCapacity() {
+		return queueCapacity;
+	}
+
+	public Policy getPolicy() {
+		return policy;
+	}
+
+	public int getQueueDepth() {
+		return executor == null ? 0 : executor.getQueue().size();
+	}
+
+	public int getActiveThreads() {
+		return executor == null ? 0 : executor.getActiveCount();
+	}
+
+	public long getRejections() {
+		return rejections.get();
+	}
+
+	public long getCompleted() {
+		return executor == null ? 0 : executor.getCompletedTaskCount();
+	}
+
+	/**
+	 * Stops taking tasks and waits up to the given time for the queued ones to finish.
+	 * @return whether every queued task finished
+	 */
+	public boolean shutdown(long timeoutMillis) {
+		if (executor == null) {
+			return true;
+		}
+		executor.shutdown();
+		try {
+			return executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public void shutdownNow() {
+		if (executor != null) {
+			executor.shutdownNow();
+		}
+	}
+
+	private class Guarded implements Runnable {
+
+		private final Runnable task;
+
+		Guarded(Runnable task) {
+			this.task = task;
+		}
+
+		@Override
+		public void run() {
+			try {
+				task.run();
+			} catch (RuntimeException e) {
+				logger.error("A task of stage '" + name + "' failed", e);
+			}
+		}
+	}
+
+}
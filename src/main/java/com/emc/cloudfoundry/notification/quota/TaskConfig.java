@@ -2,17 +2,21 @@ package com.emc.cloudfoundry.notification.quota;
 
 import java.util.concurrent.Executor;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadPoolExecutor;
 
 import org.springframework.aop.interceptor.AsyncUncaughtExceptionHandler;
 import org.springframework.aop.interceptor.SimpleAsyncUncaughtExceptionHandler;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.context.annotation.AdviceMode;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
 import org.springframework.scheduling.annotation.Async;
 import org.springframework.scheduling.annotation.AsyncConfigurer;
 import org.springframework.scheduling.annotation.EnableAsync;
 import org.springframework.scheduling.annotation.EnableScheduling;
 import org.springframework.scheduling.annotation.SchedulingConfigurer;
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
 import org.springframework.scheduling.concurrent.ThreadPoolTaskExecutor;
 import org.springframework.scheduling.config.ScheduledTaskRegistrar;
 
@@ -21,12 +25,17 @@ import org.springframework.scheduling.config.ScheduledTaskRegistrar;
  * We apply compile-time AspectJ-advice to enable {@link Async} methods to run in separate threads.
  * The Executor that carries out asynchronous task execution is a {@link ThreadPoolTaskExecutor}.
  * It is used to execute {@link Async} methods as well as handle asynchronous work initiated by Spring Integration. 
+ * The quota check itself runs on the stages of the {@link Pipeline}; the scheduler only starts it and the snapshot
+ * and retention jobs.
  */
 @Configuration
 @EnableAsync(mode=AdviceMode.ASPECTJ)
 @EnableScheduling
 public class TaskConfig implements AsyncConfigurer, SchedulingConfigurer {
 
+	@Autowired
+	private Environment environment;
+
 	//implementing AsyncConfigurer
 	@Override
 	public Executor getAsyncExecutor() {
@@ -50,16 +59,28 @@ public class TaskConfig implements AsyncConfigurer, SchedulingConfigurer {
 	}
 
 	/**
-	 * The asynchronous task executor used by the Greenhouse application.
+	 * The asynchronous task executor, sized by the async.* properties. Its queue is bounded, and once it is full
+	 * the caller runs the task itself instead of queueing without limit.
 	 */
 	@Bean
 	public Executor taskExecutor() {
-		return new ThreadPoolTaskExecutor();
+		ThreadPoolTaskExecutor executor = new ThreadPoolTaskExecutor();
+		executor.setCorePoolSize(environment.getProperty("async.corePoolSize", Integer.class, 2));
+		executor.setMaxPoolSize(environment.getProperty("async.maxPoolSize", Integer.class, 4));
+		executor.setQueueCapacity(environment.getProperty("async.queueCapacity", Integer.class, 100));
+		executor.setThreadNamePrefix("async-");
+		executor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
+		return executor;
 	}
-	
+
+	/**
+	 * The scheduler, with a thread for each of the quota check, snapshot and retention jobs, so a long purge does
+	 * not delay the next quota check.
+	 */
 	@Bean(destroyMethod = "shutdown")
 	public Executor scheduledThreadPoolExecutor() {
-		return Executors.newScheduledThreadPool(25);
+		return Executors.newScheduledThreadPool(environment.getProperty("scheduler.poolSize", Integer.class, 3),
+				new CustomizableThreadFactory("scheduler-"));
 	}
 
 }
\ No newline at end of file
@@ -0,0 +1,191 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpRequest;
+import org.springframework.http.client.ClientHttpRequestExecution;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+
+/**
+ * Captures the requests of a foundation's Cloud Controller clients and their responses, bodies and timing
+ * included, so a polling cycle can be replayed offline by a {@link TrafficReplayServer}. The RestLogCallback the
+ * client offers in verbose mode only sees the method, URL and status, so the recorder is added as an interceptor
+ * to the rest templates instead; the Authorization header is not recorded.
+ * <p>
+ * The file is a gzip stream of a magic number and a format version followed by one record per exchange, each
+ * starting with a 1 and the file ending with a 0. Strings are stored as their UTF-8 length and bytes, -1 for null,
+ * and so are bodies. Every exchange is flushed as it is recorded, so a file not closed cleanly loses at most its
+ * last exchange.
+ */
+public class TrafficRecorder implements ClientHttpRequestInterceptor, Closeable {
+
+	private static final Log logger = LogFactory.getLog(TrafficRecorder.class);
+
+	private static final int MAGIC = 0x4e515452;
+
+	private static final int VERSION = 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private final File file;
+
+	private final long started = System.currentTimeMillis();
+
+	private DataOutputStream out;
+
+	private long exchanges;
+
+	public TrafficRecorder(File file) throws IOException {
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		this.file = file;
+		this.out = new DataOutputStream(new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(file)),
+				8192, true));
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.flush();
+	}
+
+	@Override
+	public ClientHttpResponse intercept(HttpRequest request, byte[] body, ClientHttpRequestExecution execution)
+			throws IOException {
+		long start = System.nanoTime();
+		long startedAt = System.currentTimeMillis() - started;
+		ClientHttpResponse response = execution.execute(request, body);
+		byte[] responseBody;
+		try {
+			responseBody = StreamUtils.copyToByteArray(response.getBody());
+		} catch (IOException e) {
+			// error responses of some request factories have no body to read
+			responseBody = new byte[0];
+		}
+		long durationMicros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+		record(new RecordedExchange(startedAt, durationMicros, request.getMethod().name(), pathOf(request.getURI()),
+				body, response.getRawStatusCode(), response.getHeaders().getFirst(HttpHeaders.CONTENT_TYPE),
+				responseBody));
+		return new BufferedClientHttpResponse(response, responseBody);
+	}
+
+	public File getFile() {
+		return file;
+	}
+
+	public synchronized long getExchanges() {
+		return exchanges;
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		if (out == null) {
+			return;
+		}
+		out.writeByte(0);
+		out.close();
+		out = null;
+		System.out.println("Recorded " + exchanges + " exchanges to " + file + ".");
+	}
+
+	/**
+	 * Reads the exchanges of a recording, dropping a truncated last one.
+	 * @throws IOException if the file is not a recording of this version
+	 */
+	static List<RecordedExchange> read(File file) throws IOException {
+		DataInputStream in = new DataInputStream(new GZIPInputStream(new BufferedInputStream(new FileInputStream(file))));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException(file + " is not a traffic recording of version " + VERSION);
+			}
+			List<RecordedExchange> exchanges = new ArrayList<RecordedExchange>();
+			try {
+				while (in.readByte() == 1) {
+					exchanges.add(new RecordedExchange(in.readLong(), in.readLong(), readString(in), readString(in),
+							readBytes(in), in.readInt(), readString(in), readBytes(in)));
+				}
+			} catch (EOFException e) {
+				logger.warn("Recording " + file + " was not closed, its last exchange is dropped");
+			}
+			return exchanges;
+		} finally {
+			in.close();
+		}
+	}
+
+	// internal helpers
+
+	private synchronized void record(RecordedExchange exchange) {
+		if (out == null) {
+			return;
+		}
+		try {
+			out.writeByte(1);
+			out.writeLong(exchange.getStarted());
+			out.writeLong(exchange.getDurationMicros());
+			writeString(out, exchange.getMethod());
+			writeString(out, exchange.getPath());
+			writeBytes(out, exchange.getRequestBody());
+			out.writeInt(exchange.getStatus());
+			writeString(out, exchange.getContentType());
+			writeBytes(out, exchange.getResponseBody());
+			out.flush();
+			exchanges++;
+		} catch (IOException e) {
+			throw new NotificationException("Could not record to " + file, e);
+		}
+	}
+
+	private static String pathOf(URI uri) {
+		return uri.getRawQuery() == null ? uri.getRawPath() : uri.getRawPath() + "?" + uri.getRawQuery();
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		writeBytes(out, value == null ? null : value.getBytes(UTF_8));
+	}
+
+	private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			out.writeInt(value.length);
+			out.write(value);
+		}
+	}
+
+	private static String readString(DataInputStream in) throws IOException {
+		byte[] bytes = readBytes(in);
+		return bytes == null ? null : new String(bytes, UTF_8);
+	}
+
+	private static byte[] readBytes(DataInputStream in) throws IOException {
+		int length = in.readInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+}
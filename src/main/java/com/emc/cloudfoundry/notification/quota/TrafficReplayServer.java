@@ -0,0 +1,176 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.scheduling.concurrent.CustomizableThreadFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * Serves a recording of the {@link TrafficRecorder} on the loopback interface, so the application can be pointed
+ * at it instead of a foundation to benchmark changes against the shape and latency of real traffic.
+ * <p>
+ * Requests are matched by method, path and query. When a request was recorded several times, e.g. once per
+ * polling cycle, its recorded responses are served in turn. Every response is delayed by the time it took when it
+ * was recorded, divided by the speed: 1 replays at the original speed, 2 twice as fast and 0 without any delay.
+ * Token requests are answered with a token that does not expire, and the info endpoint points the client's
+ * authorization requests at this server, so no UAA is needed. Requests that were not recorded get a 404 and are
+ * counted as misses.
+ */
+public class TrafficReplayServer implements Closeable {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final String JSON = "application/json;charset=UTF-8";
+
+	private static final byte[] TOKEN = ("{\"access_token\":\"replay\",\"token_type\":\"bearer\",\"refresh_token\":\"replay\","
+			+ "\"expires_in\":315360000,\"scope\":\"cloud_controller.admin scim.read\",\"jti\":\"replay\"}")
+			.getBytes(UTF_8);
+
+	private final Map<String, List<RecordedExchange>> exchanges = new HashMap<String, List<RecordedExchange>>();
+
+	private final Map<String, AtomicInteger> served = new HashMap<String, AtomicInteger>();
+
+	private final double speed;
+
+	private final HttpServer server;
+
+	private final ExecutorService executor;
+
+	private final AtomicLong misses = new AtomicLong();
+
+	private final ObjectMapper objectMapper = new ObjectMapper();
+
+	/**
+	 * @param port the port to listen on, 0 for any free port
+	 * @param speed the factor recorded latencies are divided by, 0 to not delay responses
+	 */
+	public TrafficReplayServer(File recording, int port, double speed) throws IOException {
+		if (speed < 0) {
+			throw new NotificationException("The replay speed must not be negative");
+		}
+		this.speed = speed;
+		for (RecordedExchange exchange : TrafficRecorder.read(recording)) {
+			List<RecordedExchange> recorded = exchanges.get(exchange.getKey());
+			if (recorded == null) {
+				recorded = new ArrayList<RecordedExchange>();
+				exchanges.put(exchange.getKey(), recorded);
+				served.put(exchange.getKey(), new AtomicInteger());
+			}
+			recorded.add(exchange);
+		}
+		this.executor = Executors.newCachedThreadPool(new CustomizableThreadFactory("replay-"));
+		this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), 0);
+		server.setExecutor(executor);
+		server.createContext("/", new ReplayHandler());
+		server.start();
+		System.out.println("Replaying " + exchanges.size() + " distinct requests from " + recording + " on " + getUrl()
+				+ " at speed " + speed + ".");
+	}
+
+	public String getUrl() {
+		return "http://" + server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	@Override
+	public void close() {
+		server.stop(0);
+		executor.shutdownNow();
+		if (misses.get() > 0) {
+			System.out.println("Replay on " + getUrl() + " had " + misses.get() + " requests that were not recorded.");
+		}
+	}
+
+	// internal helpers
+
+	private RecordedExchange next(String key) {
+		List<RecordedExchange> recorded = exchanges.get(key);
+		if (recorded == null) {
+			return null;
+		}
+		return recorded.get((served.get(key).getAndIncrement() & Integer.MAX_VALUE) % recorded.size());
+	}
+
+	/**
+	 * Points the authorization and token endpoints the info endpoint reports at this server.
+	 */
+	@SuppressWarnings("unchecked")
+	private byte[] rewriteInfo(byte[] body) throws IOException {
+		Map<String, Object> info = objectMapper.readValue(body, Map.class);
+		for (String endpoint : new String[] { "authorization_endpoint", "token_endpoint" }) {
+			if (info.containsKey(endpoint)) {
+				info.put(endpoint, getUrl());
+			}
+		}
+		return objectMapper.writeValueAsBytes(info);
+	}
+
+	private class ReplayHandler implements HttpHandler {
+
+		@Override
+		public void handle(HttpExchange exchange) throws IOException {
+			try {
+				String path = exchange.getRequestURI().getRawPath();
+				String query = exchange.getRequestURI().getRawQuery();
+				if (path.endsWith("/oauth/token")) {
+					respond(exchange, 200, JSON, TOKEN);
+					return;
+				}
+				RecordedExchange recorded = next(exchange.getRequestMethod() + " "
+						+ (query == null ? path : path + "?" + query));
+				if (recorded == null) {
+					misses.incrementAndGet();
+					respond(exchange, 404, JSON, "{\"description\":\"Not recorded\"}".getBytes(UTF_8));
+					return;
+				}
+				if (speed > 0) {
+					TimeUnit.MICROSECONDS.sleep((long) (recorded.getDurationMicros() / speed));
+				}
+				byte[] body = recorded.getResponseBody();
+				if (path.equals("/v2/info") && recorded.getStatus() == 200) {
+					body = rewriteInfo(body);
+				}
+				respond(exchange, recorded.getStatus(), recorded.getContentType(), body);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				exchange.close();
+			}
+		}
+
+		private void respond(HttpExchange exchange, int status, String contentType, byte[] body) throws IOException {
+			if (contentType != null) {
+				exchange.getResponseHeaders().set("Content-Type", contentType);
+			}
+			exchange.sendResponseHeaders(status, body.length == 0 ? -1 : body.length);
+			if (body.length > 0) {
+				OutputStream out = exchange.getResponseBody();
+				out.write(body);
+				out.close();
+			}
+		}
+	}
+
+}
@@ -0,0 +1,53 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.stereotype.Component;
+
+/**
+ * Divides quota usage into bands: band 0 is below the threshold, band 1 starts at the threshold and every
+ * notification.bandWidth percent above it starts the next band. An org is notified again when it climbs into a
+ * higher band than the one it was last notified for. It only counts as having left a band once its usage is
+ * notification.hysteresis percent below the band, so usage hovering around a band boundary does not cause mails.
+ */
+@Component
+public class UsageBands {
+
+	private final int threshold;
+
+	private final int bandWidth;
+
+	private final int hysteresis;
+
+	@Autowired
+	public UsageBands(Environment environment) {
+		this(environment.getProperty("threshold", Integer.class),
+				environment.getProperty("notification.bandWidth", Integer.class, 10),
+				environment.getProperty("notification.hysteresis", Integer.class, 5));
+	}
+
+	public UsageBands(int threshold, int bandWidth, int hysteresis) {
+		if (bandWidth <= 0 || hysteresis < 0) {
+			throw new NotificationException("notification.bandWidth must be positive and notification.hysteresis not negative");
+		}
+		this.threshold = threshold;
+		this.bandWidth = bandWidth;
+		this.hysteresis = hysteresis;
+	}
+
+	/**
+	 * Returns the band of the given usage, 0 when it is below the threshold.
+	 */
+	public int band(int percentUsed) {
+		return percentUsed < threshold ? 0 : 1 + (percentUsed - threshold) / bandWidth;
+	}
+
+	/**
+	 * Returns the band of the given usage plus the hysteresis margin. An org notified for a higher band has
+	 * recovered from it, so its notifications are recorded at this band from then on.
+	 */
+	public int recoveredBand(int percentUsed) {
+		return band(percentUsed + hysteresis);
+	}
+
+}
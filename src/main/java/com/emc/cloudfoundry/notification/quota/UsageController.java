@@ -0,0 +1,81 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.List;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.util.StringUtils;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RequestHeader;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+import org.springframework.web.bind.annotation.RestController;
+
+/**
+ * Read-only access to the org and space usage measured by the latest quota checks.
+ * Responses are served from the current {@link UsageSnapshot} and never call the Cloud Controller.
+ * The snapshot ETag, its generation and a digest of its usage, is returned as ETag and the generation as
+ * X-Usage-Generation; a request for a known org whose If-None-Match matches the current ETag gets a 304, one for an
+ * unknown org always a 404.
+ */
+@RestController
+@RequestMapping(value = "/usage", method = RequestMethod.GET)
+public class UsageController {
+
+	public static final String GENERATION_HEADER = "X-Usage-Generation";
+
+	@Autowired
+	private UsageSnapshots usageSnapshots;
+
+	@RequestMapping
+	public ResponseEntity<UsageSnapshot> snapshot(@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		UsageSnapshot snapshot = usageSnapshots.get();
+		return respond(snapshot, ifNoneMatch, snapshot);
+	}
+
+	@RequestMapping("/orgs/{guid}")
+	public ResponseEntity<OrgUsage> org(@PathVariable String guid,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		UsageSnapshot snapshot = usageSnapshots.get();
+		return respond(snapshot, ifNoneMatch, snapshot.getOrg(guid));
+	}
+
+	@RequestMapping("/orgs/{guid}/spaces")
+	public ResponseEntity<List<SpaceUsage>> spaces(@PathVariable String guid,
+			@RequestHeader(value = HttpHeaders.IF_NONE_MATCH, required = false) String ifNoneMatch) {
+		UsageSnapshot snapshot = usageSnapshots.get();
+		OrgUsage org = snapshot.getOrg(guid);
+		return respond(snapshot, ifNoneMatch, org == null ? null : org.getSpaces());
+	}
+
+	// internal helpers
+
+	private <T> ResponseEntity<T> respond(UsageSnapshot snapshot, String ifNoneMatch, T body) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.setETag(snapshot.getETag());
+		headers.set(GENERATION_HEADER, String.valueOf(snapshot.getGeneration()));
+		if (body == null) {
+			return new ResponseEntity<T>(headers, HttpStatus.NOT_FOUND);
+		}
+		if (matches(snapshot.getETag(), ifNoneMatch)) {
+			return new ResponseEntity<T>(headers, HttpStatus.NOT_MODIFIED);
+		}
+		return new ResponseEntity<T>(body, headers, HttpStatus.OK);
+	}
+
+	private boolean matches(String eTag, String ifNoneMatch) {
+		if (ifNoneMatch == null) {
+			return false;
+		}
+		for (String candidate : StringUtils.commaDelimitedListToStringArray(ifNoneMatch)) {
+			candidate = candidate.trim();
+			if (candidate.equals("*") || candidate.equals(eTag) || candidate.equals("W/" + eTag)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
@@ -0,0 +1,137 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.springframework.util.DigestUtils;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+
+/**
+ * An immutable view of the org usage measured by the latest quota check of every foundation.
+ * A published snapshot only gets the next generation number when the usage of a foundation actually changed, so
+ * the ETag of the usage API stays valid across unchanged quota checks. Generations restart at 0 when no snapshot
+ * was saved, so the ETag also carries a digest of the usage; an ETag from before a restart then only matches if the
+ * usage it was issued for is the same.
+ */
+public class UsageSnapshot {
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	public static final UsageSnapshot EMPTY = new UsageSnapshot(0, 0, Collections.<String, List<OrgUsage>> emptyMap());
+
+	private final long generation;
+
+	private final long created;
+
+	private final Map<String, List<OrgUsage>> orgsByFoundation;
+
+	private final List<OrgUsage> orgs;
+
+	private final Map<String, OrgUsage> orgsByGuid;
+
+	private final String eTag;
+
+	private UsageSnapshot(long generation, long created, Map<String, List<OrgUsage>> orgsByFoundation) {
+		this.generation = generation;
+		this.created = created;
+		this.orgsByFoundation = orgsByFoundation;
+		List<OrgUsage> orgs = new ArrayList<OrgUsage>();
+		Map<String, OrgUsage> orgsByGuid = new HashMap<String, OrgUsage>();
+		for (List<OrgUsage> foundationOrgs : orgsByFoundation.values()) {
+			for (OrgUsage org : foundationOrgs) {
+				orgs.add(org);
+				orgsByGuid.put(org.getGuid(), org);
+			}
+		}
+		this.orgs = Collections.unmodifiableList(orgs);
+		this.orgsByGuid = orgsByGuid;
+		this.eTag = "\"" + generation + "-" + digest(orgsByFoundation) + "\"";
+	}
+
+	/**
+	 * Recreates a snapshot saved by a previous run, keeping its generation, and with it its ETag, so clients holding
+	 * that ETag still get a 304.
+	 */
+	public static UsageSnapshot restore(long generation, long created, List<OrgUsage> orgs) {
+		Map<String, List<OrgUsage>> orgsByFoundation = new HashMap<String, List<OrgUsage>>();
+		for (OrgUsage org : orgs) {
+			List<OrgUsage> foundationOrgs = orgsByFoundation.get(org.getFoundation());
+			if (foundationOrgs == null) {
+				foundationOrgs = new ArrayList<OrgUsage>();
+				orgsByFoundation.put(org.getFoundation(), foundationOrgs);
+			}
+			foundationOrgs.add(org);
+		}
+		for (Map.Entry<String, List<OrgUsage>> entry : orgsByFoundation.entrySet()) {
+			entry.setValue(Collections.unmodifiableList(entry.getValue()));
+		}
+		return new UsageSnapshot(generation, created, Collections.unmodifiableMap(orgsByFoundation));
+	}
+
+	/**
+	 * Returns the snapshot that follows this one, with the orgs of the given foundation replaced, or this snapshot
+	 * if their usage is unchanged.
+	 */
+	public UsageSnapshot next(String foundation, List<OrgUsage> foundationOrgs) {
+		if (foundationOrgs.equals(this.orgsByFoundation.get(foundation))) {
+			return this;
+		}
+		Map<String, List<OrgUsage>> orgsByFoundation = new HashMap<String, List<OrgUsage>>(this.orgsByFoundation);
+		orgsByFoundation.put(foundation, Collections.unmodifiableList(new ArrayList<OrgUsage>(foundationOrgs)));
+		return new UsageSnapshot(generation + 1, System.currentTimeMillis(), Collections.unmodifiableMap(orgsByFoundation));
+	}
+
+	public long getGeneration() {
+		return generation;
+	}
+
+	public long getCreated() {
+		return created;
+	}
+
+	public List<OrgUsage> getOrgs() {
+		return orgs;
+	}
+
+	public OrgUsage getOrg(String guid) {
+		return orgsByGuid.get(guid);
+	}
+
+	@JsonIgnore
+	public String getETag() {
+		return eTag;
+	}
+
+	// internal helpers
+
+	/**
+	 * Digests the usage of all foundations in foundation name order, so equal usage gets the same digest in any
+	 * process. Foundations without orgs are left out, as a restored snapshot does not know them.
+	 */
+	private static String digest(Map<String, List<OrgUsage>> orgsByFoundation) {
+		StringBuilder content = new StringBuilder();
+		for (Map.Entry<String, List<OrgUsage>> entry : new TreeMap<String, List<OrgUsage>>(orgsByFoundation).entrySet()) {
+			if (entry.getValue().isEmpty()) {
+				continue;
+			}
+			content.append(entry.getKey()).append('\n');
+			for (OrgUsage org : entry.getValue()) {
+				content.append(org.getGuid()).append(',').append(org.getName()).append(',').append(org.getMemoryUsed())
+						.append(',').append(org.getMemoryLimit()).append(',').append(org.getPercentUsed()).append('\n');
+				for (SpaceUsage space : org.getSpaces()) {
+					content.append(' ').append(space.getName()).append(',').append(space.getMemoryUsed()).append(',')
+							.append(space.getPercentOfOrgQuota()).append(',').append(space.getApps()).append(',')
+							.append(space.getInstances()).append('\n');
+				}
+			}
+		}
+		return DigestUtils.md5DigestAsHex(content.toString().getBytes(UTF_8)).substring(0, 16);
+	}
+
+}
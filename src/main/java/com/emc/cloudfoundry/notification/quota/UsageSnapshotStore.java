@@ -0,0 +1,310 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.env.Environment;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+/**
+ * Saves the current {@link UsageSnapshot} and the cached {@link OrgOwners} to snapshot.file every
+ * snapshot.frequency milliseconds and on shutdown, if either changed, and restores them at startup, so the usage API
+ * answers and the first quota check skips the owner lookups right after a restart. The first quota check then revalidates the
+ * restored usage in the background like any other.
+ * <p>
+ * The file starts with a magic number and a format version and ends with a CRC32 of everything before it; a file
+ * of another version or with a bad checksum is ignored. Strings are stored as their UTF-8 length and bytes, -1 for
+ * null. The file is written to a temporary file that replaces the previous one, and memory-mapped to be read.
+ */
+@Component
+public class UsageSnapshotStore {
+
+	private static final Log logger = LogFactory.getLog(UsageSnapshotStore.class);
+
+	private static final int MAGIC = 0x4e515553;
+
+	private static final int VERSION = 1;
+
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	@Autowired
+	private UsageSnapshots usageSnapshots;
+
+	@Autowired
+	private OrgOwners orgOwners;
+
+	private final File file;
+
+	private final boolean enabled;
+
+	private long savedGeneration = -1;
+
+	private long savedOwnerChanges = -1;
+
+	/**
+	 * Creates the store of snapshot.file. On Cloud Foundry a file on the container disk, the default one in the temp
+	 * directory included, would not survive the restart it is meant for, so the store is disabled with a warning
+	 * unless snapshot.file points at a volume service mount.
+	 */
+	@Autowired
+	public UsageSnapshotStore(Environment environment) throws IOException {
+		this.file = new File(environment.getProperty("snapshot.file",
+				new File(System.getProperty("java.io.tmpdir"), "notification-quota-usage.snapshot").getPath()));
+		boolean enabled = environment.getProperty("snapshot.enabled", Boolean.class, true);
+		if (enabled && MappedStoreConfig.isOnContainerDisk(environment, file)) {
+			logger.warn("Not saving the usage snapshot: snapshot.file " + file + " is on the container disk, which is "
+					+ "discarded on every restart and push; point it at a volume service mount for a warm start");
+			enabled = false;
+		}
+		this.enabled = enabled;
+	}
+
+	public UsageSnapshotStore(File file, boolean enabled) {
+		this.file = file;
+		this.enabled = enabled;
+	}
+
+	@PostConstruct
+	public void load() {
+		if (!enabled || !file.exists()) {
+			return;
+		}
+		long start = System.currentTimeMillis();
+		try {
+			Restored restored = read(file);
+			if (restored == null) {
+				return;
+			}
+			for (Map.Entry<String, OrgOwners.Entry> entry : restored.owners.entrySet()) {
+				orgOwners.put(entry.getKey(), entry.getValue());
+			}
+			if (usageSnapshots.restore(restored.snapshot)) {
+				savedGeneration = restored.snapshot.getGeneration();
+			}
+			savedOwnerChanges = orgOwners.getChanges();
+			System.out.println("Restored usage generation " + restored.snapshot.getGeneration() + " of "
+					+ restored.snapshot.getOrgs().size() + " orgs and the owners of " + restored.owners.size()
+					+ " orgs from " + file + " in " + (System.currentTimeMillis() - start) + "ms.");
+		} catch (IOException e) {
+			logger.warn("Could not restore the usage snapshot from " + file, e);
+		}
+	}
+
+	@Scheduled(initialDelayString = "${snapshot.frequency:60000}", fixedDelayString = "${snapshot.frequency:60000}")
+	public synchronized void save() {
+		if (!enabled) {
+			return;
+		}
+		UsageSnapshot snapshot = usageSnapshots.get();
+		long ownerChanges = orgOwners.getChanges();
+		if (snapshot.getGeneration() == savedGeneration && ownerChanges == savedOwnerChanges) {
+			return;
+		}
+		try {
+			write(file, snapshot, orgOwners.entries());
+			savedGeneration = snapshot.getGeneration();
+			savedOwnerChanges = ownerChanges;
+		} catch (IOException e) {
+			logger.warn("Could not save the usage snapshot to " + file, e);
+		}
+	}
+
+	@PreDestroy
+	public void close() {
+		save();
+	}
+
+	boolean isEnabled() {
+		return enabled;
+	}
+
+	// internal helpers
+
+	static void write(File file, UsageSnapshot snapshot, Map<String, OrgOwners.Entry> owners) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeLong(snapshot.getGeneration());
+		out.writeLong(snapshot.getCreated());
+		out.writeInt(snapshot.getOrgs().size());
+		for (OrgUsage org : snapshot.getOrgs()) {
+			writeString(out, org.getFoundation());
+			writeString(out, org.getGuid());
+			writeString(out, org.getName());
+			out.writeInt(org.getMemoryUsed());
+			out.writeInt(org.getMemoryLimit());
+			out.writeInt(org.getPercentUsed());
+			out.writeInt(org.getSpaces().size());
+			for (SpaceUsage space : org.getSpaces()) {
+				writeString(out, space.getName());
+				out.writeInt(space.getMemoryUsed());
+				out.writeInt(space.getPercentOfOrgQuota());
+				out.writeInt(space.getApps());
+				out.writeInt(space.getInstances());
+			}
+		}
+		out.writeInt(owners.size());
+		for (Map.Entry<String, OrgOwners.Entry> entry : owners.entrySet()) {
+			writeString(out, entry.getKey());
+			out.writeLong(entry.getValue().getLookedUp());
+			out.writeInt(entry.getValue().getOwners().size());
+			for (OrgOwner owner : entry.getValue().getOwners()) {
+				writeString(out, owner.getId());
+				writeString(out, owner.getEmail());
+				writeString(out, owner.getGivenName());
+			}
+		}
+		CRC32 crc = new CRC32();
+		crc.update(bytes.toByteArray());
+		out.writeInt((int) crc.getValue());
+		out.flush();
+
+		File directory = file.getAbsoluteFile().getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Could not create " + directory);
+		}
+		File tempFile = new File(directory, file.getName() + ".tmp");
+		FileOutputStream stream = new FileOutputStream(tempFile);
+		try {
+			bytes.writeTo(stream);
+			stream.getFD().sync();
+		} finally {
+			stream.close();
+		}
+		Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Reads a snapshot file, returning null if it is of another version or damaged.
+	 */
+	static Restored read(File file) throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			FileChannel channel = raf.getChannel();
+			if (channel.size() < 12 || channel.size() > Integer.MAX_VALUE) {
+				logger.warn("Ignoring usage snapshot " + file + " of " + channel.size() + " bytes");
+				return null;
+			}
+			ByteBuffer buffer = channel.map(MapMode.READ_ONLY, 0, channel.size());
+			if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+				logger.warn("Ignoring usage snapshot " + file + " of an unknown format or version");
+				return null;
+			}
+			if (!checksumMatches(buffer)) {
+				logger.warn("Ignoring usage snapshot " + file + " with a bad checksum");
+				return null;
+			}
+			return readSnapshot(buffer);
+		} catch (BufferUnderflowException e) {
+			logger.warn("Ignoring truncated usage snapshot " + file);
+			return null;
+		} finally {
+			raf.close();
+		}
+	}
+
+	private static boolean checksumMatches(ByteBuffer buffer) {
+		int end = buffer.limit() - 4;
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[4096];
+		ByteBuffer content = buffer.duplicate();
+		content.position(0);
+		while (content.position() < end) {
+			int length = Math.min(chunk.length, end - content.position());
+			content.get(chunk, 0, length);
+			crc.update(chunk, 0, length);
+		}
+		return (int) crc.getValue() == buffer.getInt(end);
+	}
+
+	private static Restored readSnapshot(ByteBuffer buffer) {
+		long generation = buffer.getLong();
+		long created = buffer.getLong();
+		int orgCount = buffer.getInt();
+		List<OrgUsage> orgs = new ArrayList<OrgUsage>(orgCount);
+		for (int i = 0; i < orgCount; i++) {
+			String foundation = readString(buffer);
+			String guid = readString(buffer);
+			String name = readString(buffer);
+			int memoryUsed = buffer.getInt();
+			int memoryLimit = buffer.getInt();
+			int percentUsed = buffer.getInt();
+			int spaceCount = buffer.getInt();
+			List<SpaceUsage> spaces = new ArrayList<SpaceUsage>(spaceCount);
+			for (int j = 0; j < spaceCount; j++) {
+				spaces.add(new SpaceUsage(readString(buffer), buffer.getInt(), buffer.getInt(), buffer.getInt(),
+						buffer.getInt()));
+			}
+			orgs.add(new OrgUsage(foundation, guid, name, memoryUsed, memoryLimit, percentUsed, spaces));
+		}
+		Restored restored = new Restored(UsageSnapshot.restore(generation, created, orgs));
+		int ownedOrgCount = buffer.getInt();
+		for (int i = 0; i < ownedOrgCount; i++) {
+			String orgGuid = readString(buffer);
+			long lookedUp = buffer.getLong();
+			int ownerCount = buffer.getInt();
+			List<OrgOwner> owners = new ArrayList<OrgOwner>(ownerCount);
+			for (int j = 0; j < ownerCount; j++) {
+				owners.add(new OrgOwner(readString(buffer), readString(buffer), readString(buffer)));
+			}
+			restored.owners.put(orgGuid, new OrgOwners.Entry(lookedUp, owners));
+		}
+		return restored;
+	}
+
+	private static void writeString(DataOutputStream out, String value) throws IOException {
+		if (value == null) {
+			out.writeInt(-1);
+		} else {
+			byte[] bytes = value.getBytes(UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	private static String readString(ByteBuffer buffer) {
+		int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, UTF_8);
+	}
+
+	static class Restored {
+
+		final UsageSnapshot snapshot;
+
+		final Map<String, OrgOwners.Entry> owners = new HashMap<String, OrgOwners.Entry>();
+
+		Restored(UsageSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+	}
+
+}
@@ -0,0 +1,41 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.springframework.stereotype.Component;
+
+/**
+ * Holds the current {@link UsageSnapshot}. Quota checks publish a new snapshot by swapping the reference, so
+ * readers never lock and always see a complete snapshot.
+ */
+@Component
+public class UsageSnapshots {
+
+	private final AtomicReference<UsageSnapshot> current = new AtomicReference<UsageSnapshot>(UsageSnapshot.EMPTY);
+
+	public UsageSnapshot get() {
+		return current.get();
+	}
+
+	/**
+	 * Makes a snapshot saved by a previous run current, unless a quota check has already published one.
+	 */
+	public boolean restore(UsageSnapshot snapshot) {
+		return current.compareAndSet(UsageSnapshot.EMPTY, snapshot);
+	}
+
+	/**
+	 * Publishes the orgs measured on a foundation, keeping the current snapshot if their usage is unchanged.
+	 */
+	public UsageSnapshot publish(String foundation, List<OrgUsage> orgs) {
+		while (true) {
+			UsageSnapshot snapshot = current.get();
+			UsageSnapshot next = snapshot.next(foundation, orgs);
+			if (next == snapshot || current.compareAndSet(snapshot, next)) {
+				return next;
+			}
+		}
+	}
+
+}
@@ -8,29 +8,29 @@ import java.util.Map;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.springframework.boot.context.embedded.AnnotationConfigEmbeddedWebApplicationContext;
 import org.springframework.cloud.Cloud;
 import org.springframework.cloud.CloudException;
 import org.springframework.cloud.CloudFactory;
 import org.springframework.cloud.service.ServiceInfo;
 import org.springframework.cloud.service.common.MysqlServiceInfo;
 import org.springframework.context.ApplicationContextInitializer;
+import org.springframework.context.ConfigurableApplicationContext;
 import org.springframework.core.env.ConfigurableEnvironment;
 import org.springframework.util.StringUtils;
 
-public class WebApplicationInitializer implements ApplicationContextInitializer<AnnotationConfigEmbeddedWebApplicationContext> {
+public class WebApplicationInitializer implements ApplicationContextInitializer<ConfigurableApplicationContext> {
 
     public static final String IN_MEMORY_PROFILE = "in-memory";
     private static final Log logger = LogFactory.getLog(WebApplicationInitializer.class);
     private static final Map<Class<? extends ServiceInfo>, String> serviceTypeToProfileName =
             new HashMap<Class<? extends ServiceInfo>, String>();
-    private static final List<String> validLocalProfiles = Arrays.asList("mysql");
+    private static final List<String> validLocalProfiles = Arrays.asList("mysql", MappedStoreConfig.MAPPED_PROFILE);
     static {
         serviceTypeToProfileName.put(MysqlServiceInfo.class, "mysql");
     }
 
     @Override
-    public void initialize(AnnotationConfigEmbeddedWebApplicationContext applicationContext) {
+    public void initialize(ConfigurableApplicationContext applicationContext) {
     	System.out.println("Initializing...");
         Cloud cloud = getCloud();
     	System.out.println("Are we in cloud? " + cloud);
@@ -90,6 +90,10 @@ public class WebApplicationInitializer implements ApplicationContextInitializer<
     }
 
     private Cloud getCloud() {
+        // CloudFactory scans the classpath for connectors, so only pay for it when running on Cloud Foundry
+        if (System.getenv("VCAP_APPLICATION") == null) {
+            return null;
+        }
         try {
             CloudFactory cloudFactory = new CloudFactory();
             return cloudFactory.getCloud();
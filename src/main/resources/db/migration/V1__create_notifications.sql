@@ -0,0 +1,8 @@
+create table notifications (
+	orgGuId varchar(255) not null,
+	userGuid varchar(255) not null,
+	email varchar(255) not null,
+	message longblob not null,
+	lastSent datetime not null,
+	primary key (orgGuId, userGuid)
+);
@@ -0,0 +1,14 @@
+create index idx_notifications_last_sent on notifications (lastSent);
+
+create table notifications_archive (
+	id bigint not null auto_increment,
+	orgGuId varchar(255) not null,
+	userGuid varchar(255) not null,
+	email varchar(255) not null,
+	message longblob not null,
+	lastSent datetime not null,
+	archived datetime not null,
+	primary key (id)
+);
+
+create index idx_notifications_archive_archived on notifications_archive (archived);
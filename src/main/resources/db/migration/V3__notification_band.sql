@@ -0,0 +1,4 @@
+alter table notifications add column band integer default 0 not null;
+
+-- everything notified so far was over the threshold, so at least in the first band
+update notifications set band = 1;
@@ -0,0 +1,2 @@
+-- incremented by every claim, so of several instances that found a notification due only one sends it
+alter table notifications add column version bigint default 0 not null;
@@ -0,0 +1,121 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.springframework.test.web.client.match.MockRestRequestMatchers.requestTo;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withStatus;
+import static org.springframework.test.web.client.response.MockRestResponseCreators.withSuccess;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.test.web.client.MockRestServiceServer;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+public class AdaptiveConcurrencyLimiterTests {
+
+	private final AdaptiveConcurrencyLimiter limiter = new AdaptiveConcurrencyLimiter("test", 4, 1, 8, 1000, 0.5);
+
+	@Test
+	public void growsWhileTheLimitIsInUse() {
+		callConcurrently(4);
+		callConcurrently(4);
+		assertEquals(4, limiter.getLimit());
+		callConcurrently(4);
+		assertEquals(5, limiter.getLimit());
+	}
+
+	@Test
+	public void doesNotGrowWhileMostOfTheLimitIsUnused() {
+		for (int i = 0; i < 100; i++) {
+			callConcurrently(1);
+		}
+		assertEquals(4, limiter.getLimit());
+	}
+
+	@Test
+	public void halvesOnThrottlingOncePerLatencyTarget() throws Exception {
+		@SuppressWarnings("unchecked")
+		Callable<String> throttled = limiter.limit(Callable.class, new Callable<String>() {
+			@Override
+			public String call() {
+				throw new HttpClientErrorException(HttpStatus.TOO_MANY_REQUESTS);
+			}
+		});
+		for (int i = 0; i < 2; i++) {
+			try {
+				throttled.call();
+				fail();
+			} catch (HttpClientErrorException e) {
+				assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.getStatusCode());
+			}
+		}
+		assertEquals(2, limiter.getLimit());
+		assertEquals(2, limiter.getDrops());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	@Test
+	public void callsOverTheLimitWait() throws Exception {
+		final AdaptiveConcurrencyLimiter single = new AdaptiveConcurrencyLimiter("single", 1, 1, 1, 1000, 0.5);
+		single.acquire();
+		final CountDownLatch started = new CountDownLatch(1);
+		final CountDownLatch acquired = new CountDownLatch(1);
+		Thread waiter = new Thread() {
+			@Override
+			public void run() {
+				started.countDown();
+				single.acquire();
+				acquired.countDown();
+				single.release(0, false);
+			}
+		};
+		waiter.start();
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		while (waiter.getState() != Thread.State.WAITING) {
+			Thread.yield();
+		}
+		assertEquals(1, acquired.getCount());
+		single.release(0, false);
+		assertTrue(acquired.await(5, TimeUnit.SECONDS));
+		assertTrue(single.getQueueingDelay() > 0);
+	}
+
+	@Test
+	public void limitsEveryRequestOfARestTemplate() {
+		RestTemplate restTemplate = new RestTemplate();
+		MockRestServiceServer server = MockRestServiceServer.createServer(restTemplate);
+		restTemplate.getInterceptors().add(limiter);
+		server.expect(requestTo("/v2/organizations")).andRespond(withSuccess("{}", MediaType.APPLICATION_JSON));
+		server.expect(requestTo("/v2/organizations?page=2")).andRespond(withStatus(HttpStatus.TOO_MANY_REQUESTS));
+
+		restTemplate.getForObject("/v2/organizations", String.class);
+		assertEquals(4, limiter.getLimit());
+		try {
+			restTemplate.getForObject("/v2/organizations?page=2", String.class);
+			fail();
+		} catch (HttpClientErrorException e) {
+			assertEquals(HttpStatus.TOO_MANY_REQUESTS, e.getStatusCode());
+		}
+		server.verify();
+		assertEquals(2, limiter.getLimit());
+		assertEquals(1, limiter.getDrops());
+		assertEquals(0, limiter.getInFlight());
+	}
+
+	private void callConcurrently(int calls) {
+		for (int i = 0; i < calls; i++) {
+			limiter.acquire();
+		}
+		for (int i = 0; i < calls; i++) {
+			limiter.release(TimeUnit.MILLISECONDS.toNanos(10), false);
+		}
+	}
+
+}
@@ -0,0 +1,49 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Measures how long it takes until the polling cycle is scheduled, headless and with the embedded web server, and
+ * guards that the headless startup stays the faster one. Boots the application several times, so it is left out of
+ * the regular test run; run it with the benchmarks profile (mvn test -Pbenchmarks).
+ * The ratio of the headless to the web startup time can be tuned for noisy build machines with -Dstartup.maxRatio.
+ */
+public class ApplicationStartupBenchmark {
+
+	private static final int RUNS = 3;
+
+	private static final double MAX_HEADLESS_TO_WEB_RATIO = Double.parseDouble(System.getProperty("startup.maxRatio",
+			"0.9"));
+
+	// keep the first cycle from calling out to Cloud Foundry while we measure
+	private static final String[] ARGS = { "--initialDelay=3600000", "--server.port=0" };
+
+	@Test
+	public void headlessStartsFasterThanWeb() {
+		// warm up the class loading both variants share
+		medianStartupMillis(false);
+		long headless = medianStartupMillis(true);
+		long web = medianStartupMillis(false);
+
+		assertThat((double) headless / web, lessThan(MAX_HEADLESS_TO_WEB_RATIO));
+	}
+
+	private long medianStartupMillis(boolean headless) {
+		long[] samples = new long[RUNS];
+		for (int i = 0; i < RUNS; i++) {
+			long start = System.nanoTime();
+			ConfigurableApplicationContext context = Application.createApplication(headless).run(ARGS);
+			samples[i] = (System.nanoTime() - start) / 1000000;
+			context.close();
+		}
+		Arrays.sort(samples);
+		return samples[RUNS / 2];
+	}
+
+}
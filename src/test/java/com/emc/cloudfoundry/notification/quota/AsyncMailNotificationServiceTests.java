@@ -0,0 +1,157 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.mail.MailSendException;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+@ActiveProfiles(WebApplicationInitializer.IN_MEMORY_PROFILE)
+@TestPropertySource(properties = { "initialDelay=3600000", "retention.initialDelay=3600000" })
+public class AsyncMailNotificationServiceTests {
+
+	private static final int THREADS = 8;
+
+	@Autowired
+	private NotificationRepository notificationRepository;
+
+	private final CountingMailSender mailSender = new CountingMailSender();
+
+	private AsyncMailNotificationService notificationService;
+
+	@Before
+	public void setUp() {
+		notificationRepository.deleteAll();
+		MockEnvironment environment = new MockEnvironment();
+		environment.setProperty("mail.host", "localhost");
+		environment.setProperty("mail.subject", "quota");
+		environment.setProperty("notification.maxInterval", "168");
+		notificationService = new AsyncMailNotificationService(environment, mailSender, null,
+				new CycleEvents(false, 0, 0, 0, null), notificationRepository);
+	}
+
+	@Test
+	public void onlyOneOfConcurrentSendersDelivers() throws Exception {
+		assertEquals(1, sendConcurrently(1));
+		assertEquals(0, notificationRepository.findOne(new NotificationPk("org", "user")).getVersion());
+
+		// a higher band is due right away, but still only once
+		assertEquals(1, sendConcurrently(2));
+		assertEquals(0, sendConcurrently(2));
+		Notification notification = notificationRepository.findOne(new NotificationPk("org", "user"));
+		assertEquals(2, notification.getBand());
+		assertEquals(1, notification.getVersion());
+	}
+
+	@Test
+	public void handsBackTheClaimWhenDeliveryFails() {
+		mailSender.failing = true;
+		try {
+			send(1);
+			fail("The mail should not have been delivered");
+		} catch (MailSendException e) {
+			// expected
+		}
+		assertNull(notificationRepository.findOne(new NotificationPk("org", "user")));
+
+		mailSender.failing = false;
+		send(1);
+		assertEquals(1, mailSender.sent.get());
+	}
+
+	@Test
+	public void lowersTheBandOfRecoveredOrgsOnly() {
+		send(2);
+		Map<String, Integer> recoveredBands = new HashMap<String, Integer>();
+		recoveredBands.put("org", 1);
+		recoveredBands.put("other", 0);
+		notificationService.recordRecovery(recoveredBands);
+		assertEquals(1, notificationRepository.findOne(new NotificationPk("org", "user")).getBand());
+
+		notificationService.recordRecovery(Collections.singletonMap("org", 2));
+		assertEquals(1, notificationRepository.findOne(new NotificationPk("org", "user")).getBand());
+
+		// back in band 2, the org is notified again
+		send(2);
+		assertEquals(2, mailSender.sent.get());
+	}
+
+	private int sendConcurrently(final int band) throws Exception {
+		int sentBefore = mailSender.sent.get();
+		final CountDownLatch start = new CountDownLatch(1);
+		ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+		try {
+			List<Future<Void>> senders = new ArrayList<Future<Void>>();
+			for (int i = 0; i < THREADS; i++) {
+				senders.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						start.await();
+						send(band);
+						return null;
+					}
+				}));
+			}
+			start.countDown();
+			for (Future<Void> sender : senders) {
+				sender.get();
+			}
+		} finally {
+			executor.shutdown();
+		}
+		return mailSender.sent.get() - sentBefore;
+	}
+
+	private void send(int band) {
+		notificationService.sendNotification("org", "user", "ops@example.com",
+				Collections.singletonList("manager@example.com"), "quota exceeded", band);
+	}
+
+	private static class CountingMailSender implements MailSender {
+
+		private final AtomicInteger sent = new AtomicInteger();
+
+		private volatile boolean failing;
+
+		@Override
+		public void send(SimpleMailMessage simpleMessage) {
+			if (failing) {
+				throw new MailSendException("mail server unavailable");
+			}
+			sent.incrementAndGet();
+		}
+
+		@Override
+		public void send(SimpleMailMessage... simpleMessages) {
+			for (SimpleMailMessage simpleMessage : simpleMessages) {
+				send(simpleMessage);
+			}
+		}
+	}
+
+}
@@ -0,0 +1,207 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudEntity;
+import org.cloudfoundry.client.lib.domain.CloudOrganization;
+import org.cloudfoundry.client.lib.domain.CloudQuota;
+import org.cloudfoundry.client.lib.domain.CloudSpace;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+/**
+ * Guards the allocation rate of the quota check loop, so short polling intervals keep the GC quiet.
+ * A foundation of 200 orgs, every tenth of them over the threshold, is checked repeatedly on the test thread, with
+ * every stage running on the thread that submits to it, and the bytes the thread allocates are divided by the
+ * number of orgs checked.
+ */
+public class CheckQuotaAllocationTests {
+
+	private static final int ORGS = 200;
+
+	private static final int SPACES_PER_ORG = 5;
+
+	private static final int APPS_PER_SPACE = 4;
+
+	private static final int WARM_UP_CYCLES = 300;
+
+	private static final int MEASURED_ROUNDS = 5;
+
+	private static final int CYCLES_PER_ROUND = 40;
+
+	// the usage, log lines, per cycle maps, pipeline tasks and rendered notifications come to 4.7-5.4KB per org
+	// on JDK 8 depending on what the rest of the suite left compiled; the bound leaves about 13% over the top of that
+	private static final long MAX_BYTES_PER_ORG = 6144;
+
+	@Test
+	public void checkingAnOrgAllocatesLittleMoreThanItsOutput() {
+		java.lang.management.ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		assumeTrue(threads instanceof com.sun.management.ThreadMXBean
+				&& ((com.sun.management.ThreadMXBean) threads).isThreadAllocatedMemorySupported());
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean) threads;
+		allocations.setThreadAllocatedMemoryEnabled(true);
+
+		FixtureFoundation foundation = new FixtureFoundation();
+		Application application = createApplication(foundation);
+		long threadId = Thread.currentThread().getId();
+		PrintStream stdout = System.out;
+		System.setOut(new PrintStream(new DiscardingOutputStream()));
+		long bytesPerOrg;
+		try {
+			for (int i = 0; i < WARM_UP_CYCLES; i++) {
+				application.checkQuota(foundation);
+			}
+			// the quietest round, so a round the JIT recompiles in does not count
+			bytesPerOrg = Long.MAX_VALUE;
+			for (int round = 0; round < MEASURED_ROUNDS; round++) {
+				long before = allocations.getThreadAllocatedBytes(threadId);
+				for (int i = 0; i < CYCLES_PER_ROUND; i++) {
+					application.checkQuota(foundation);
+				}
+				long roundBytes = (allocations.getThreadAllocatedBytes(threadId) - before) / (CYCLES_PER_ROUND * ORGS);
+				bytesPerOrg = Math.min(bytesPerOrg, roundBytes);
+			}
+		} finally {
+			System.setOut(stdout);
+		}
+		assertTrue("Checking an org allocated " + bytesPerOrg + " bytes, more than " + MAX_BYTES_PER_ORG,
+				bytesPerOrg <= MAX_BYTES_PER_ORG);
+	}
+
+	private Application createApplication(FixtureFoundation foundation) {
+		Application application = new Application();
+		OrgOwners orgOwners = new OrgOwners(Long.MAX_VALUE / 2);
+		for (CloudOrganization org : foundation.orgs) {
+			orgOwners.put(org.getMeta().getGuid().toString(),
+					Arrays.asList(new OrgOwner(UUID.randomUUID().toString(), "manager@example.com", "Jane")));
+		}
+		ReflectionTestUtils.setField(application, "usageBands", new UsageBands(80, 10, 5));
+		ReflectionTestUtils.setField(application, "cycleEvents", new CycleEvents(false, 0, 0, 0, null));
+		ReflectionTestUtils.setField(application, "orgOwners", orgOwners);
+		ReflectionTestUtils.setField(application, "usageSnapshots", new UsageSnapshots());
+		ReflectionTestUtils.setField(application, "notificationService", new DiscardingNotificationService());
+		MockEnvironment environment = new MockEnvironment();
+		for (PipelineStage stage : PipelineStage.values()) {
+			environment.setProperty("pipeline." + stage.getKey() + ".threads", "0");
+		}
+		ReflectionTestUtils.setField(application, "pipeline", new Pipeline(environment));
+		return application;
+	}
+
+	private static class FixtureFoundation extends Foundation {
+
+		private final List<CloudOrganization> orgs = new ArrayList<CloudOrganization>();
+
+		private final List<CloudSpace> spaces = new ArrayList<CloudSpace>();
+
+		private final List<CloudApplication> applications = new ArrayList<CloudApplication>();
+
+		private final Map<UUID, Integer> memoryUsage = new HashMap<UUID, Integer>();
+
+		private final CloudFoundryOperations client;
+
+		FixtureFoundation() {
+			super(target(), false, new AdaptiveConcurrencyLimiter("test.cf", 1, 1, 1, 1000, 0.5),
+					new AdaptiveConcurrencyLimiter("test.uaa", 1, 1, 1, 1000, 0.5), new QuotaDefinitions(0), null, null);
+			CloudQuota quota = new CloudQuota(new CloudEntity.Meta(UUID.randomUUID(), null, null), "default");
+			quota.setMemoryLimit(10240);
+			for (int i = 0; i < ORGS; i++) {
+				CloudOrganization org = new CloudOrganization(new CloudEntity.Meta(UUID.randomUUID(), null, null),
+						"org-" + i, quota, false);
+				orgs.add(org);
+				memoryUsage.put(org.getMeta().getGuid(), i % 10 == 0 ? 9216 : 2048);
+				for (int j = 0; j < SPACES_PER_ORG; j++) {
+					CloudSpace space = new CloudSpace(new CloudEntity.Meta(UUID.randomUUID(), null, null),
+							"space-" + i + "-" + j, org);
+					spaces.add(space);
+					for (int k = 0; k < APPS_PER_SPACE; k++) {
+						CloudApplication app = new CloudApplication(new CloudEntity.Meta(UUID.randomUUID(), null, null),
+								"app-" + i + "-" + j + "-" + k);
+						app.setSpace(space);
+						app.setMemory(256);
+						app.setInstances(2);
+						applications.add(app);
+					}
+				}
+			}
+			client = (CloudFoundryOperations) Proxy.newProxyInstance(getClass().getClassLoader(),
+					new Class<?>[] { CloudFoundryOperations.class }, new InvocationHandler() {
+						@Override
+						public Object invoke(Object proxy, Method method, Object[] args) {
+							if (method.getName().equals("getMemoryUsageForOrg")) {
+								return memoryUsage.get(args[0]);
+							}
+							throw new UnsupportedOperationException(method.getName());
+						}
+					});
+		}
+
+		private static FoundationProperties.Target target() {
+			FoundationProperties.Target target = new FoundationProperties.Target();
+			target.setName("test");
+			target.setTarget("https://api.example.com");
+			return target;
+		}
+
+		@Override
+		public CloudFoundryOperations getCloudFoundryClient() {
+			return client;
+		}
+
+		@Override
+		public List<CloudOrganization> listOrganizations() {
+			return orgs;
+		}
+
+		@Override
+		public List<CloudSpace> listSpaces() {
+			return spaces;
+		}
+
+		@Override
+		public List<CloudApplication> listApplications() {
+			return applications;
+		}
+	}
+
+	private static class DiscardingNotificationService implements NotificationService {
+
+		@Override
+		public void sendNotification(String orgGuid, String userGuid, String from, List<String> to, String messageBody,
+				int band) {
+		}
+
+		@Override
+		public void recordRecovery(Map<String, Integer> recoveredBands) {
+		}
+	}
+
+	private static class DiscardingOutputStream extends OutputStream {
+
+		@Override
+		public void write(int b) {
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+		}
+	}
+
+}
@@ -0,0 +1,54 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.io.File;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class CycleEventsTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private CycleEvents cycleEvents;
+
+	@After
+	public void close() {
+		if (cycleEvents != null) {
+			cycleEvents.close();
+		}
+	}
+
+	@Test
+	public void disabledEventsRecordNothing() {
+		cycleEvents = new CycleEvents(false, 1, 60, 0, folder.getRoot());
+		assertFalse(cycleEvents.isRecording());
+		cycleEvents.begin(CyclePhase.USAGE).end("test", "org", 1, 0);
+		assertNull(cycleEvents.cycleCompleted("test", 1000));
+	}
+
+	@Test
+	public void dumpsTheRecordingOfASlowCycle() {
+		cycleEvents = new CycleEvents(true, 500, 60, 60000, folder.getRoot());
+		assumeTrue(cycleEvents.isRecording());
+		for (CyclePhase phase : CyclePhase.values()) {
+			cycleEvents.begin(phase).end("test", "org", 1, 100);
+		}
+
+		assertNull(cycleEvents.cycleCompleted("test", 499));
+		File dump = cycleEvents.cycleCompleted("test", 500);
+		assertNotNull(dump);
+		assertTrue(dump.length() > 0);
+		// at most one dump per interval
+		assertNull(cycleEvents.cycleCompleted("test", 1000));
+	}
+
+}
@@ -0,0 +1,105 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.junit.After;
+import org.junit.Test;
+import org.springframework.beans.factory.BeanCreationException;
+import org.springframework.boot.autoconfigure.PropertyPlaceholderAutoConfiguration;
+import org.springframework.boot.test.EnvironmentTestUtils;
+import org.springframework.context.annotation.AnnotationConfigApplicationContext;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class FoundationConfigTests {
+
+	private AnnotationConfigApplicationContext context;
+
+	@After
+	public void close() {
+		if (context != null) {
+			context.close();
+		}
+	}
+
+	@Test
+	public void bindsTheListedTargets() {
+		Foundations foundations = load("foundations.targets[0].name:east",
+				"foundations.targets[0].target:https://api.east.example.com",
+				"foundations.targets[0].uaaTarget:https://uaa.east.example.com",
+				"foundations.targets[0].username:admin", "foundations.targets[0].password:secret",
+				"foundations.targets[1].name:west", "foundations.targets[1].target:https://api.west.example.com",
+				"foundations.targets[1].skipSslValidation:true", "PCF_TARGET:https://api.example.com");
+
+		assertEquals(2, foundations.size());
+		Foundation east = foundations.get("east");
+		assertEquals("https://api.east.example.com", ReflectionTestUtils.getField(east, "target"));
+		assertEquals("https://uaa.east.example.com", ReflectionTestUtils.getField(east, "uaaTarget"));
+		assertEquals("admin", ReflectionTestUtils.getField(east, "username"));
+		Foundation west = foundations.get("west");
+		assertEquals("https://api.west.example.com", ReflectionTestUtils.getField(west, "target"));
+		assertEquals(true, ReflectionTestUtils.getField(west, "trustSelfSignedCerts"));
+	}
+
+	@Test
+	public void fallsBackToThePcfEnvironmentVariables() {
+		Foundations foundations = load("PCF_TARGET:https://api.example.com",
+				"PCF_UAA_TARGET:https://uaa.example.com", "PCF_USERNAME:admin", "PCF_PASSWORD:secret");
+
+		assertEquals(1, foundations.size());
+		Foundation foundation = foundations.get("default");
+		assertNotNull(foundation);
+		assertEquals("https://api.example.com", ReflectionTestUtils.getField(foundation, "target"));
+		assertEquals("https://uaa.example.com", ReflectionTestUtils.getField(foundation, "uaaTarget"));
+		assertEquals("secret", ReflectionTestUtils.getField(foundation, "password"));
+	}
+
+	@Test
+	public void rejectsDuplicateNames() {
+		assertRejected("defined more than once", "foundations.targets[0].name:east",
+				"foundations.targets[0].target:https://api.east.example.com", "foundations.targets[1].name:east",
+				"foundations.targets[1].target:https://api.west.example.com");
+	}
+
+	@Test
+	public void rejectsATargetWithoutAName() {
+		assertRejected("needs a name", "foundations.targets[0].target:https://api.east.example.com");
+	}
+
+	@Test
+	public void rejectsAMissingTarget() {
+		assertRejected("has no target", "foundations.targets[0].name:east");
+	}
+
+	@Test
+	public void rejectsAnInvalidTarget() {
+		assertRejected("invalid target", "foundations.targets[0].name:east",
+				"foundations.targets[0].target:api.east.example.com");
+		close();
+		assertRejected("invalid uaaTarget", "foundations.targets[0].name:east",
+				"foundations.targets[0].target:https://api.east.example.com",
+				"foundations.targets[0].uaaTarget:ftp://uaa.east.example.com");
+	}
+
+	private Foundations load(String... pairs) {
+		context = new AnnotationConfigApplicationContext();
+		EnvironmentTestUtils.addEnvironment(context, pairs);
+		context.register(PropertyPlaceholderAutoConfiguration.class, FoundationConfig.class);
+		context.refresh();
+		return context.getBean(Foundations.class);
+	}
+
+	private void assertRejected(String message, String... pairs) {
+		try {
+			load(pairs);
+			fail("Expected the targets to be rejected");
+		} catch (BeanCreationException e) {
+			Throwable cause = e.getMostSpecificCause();
+			assertTrue(cause.toString(), cause instanceof NotificationException);
+			assertTrue(cause.getMessage(), cause.getMessage().contains(message));
+		}
+	}
+
+}
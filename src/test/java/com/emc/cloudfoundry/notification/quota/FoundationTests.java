@@ -0,0 +1,209 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cloudfoundry.client.lib.CloudCredentials;
+import org.cloudfoundry.client.lib.rest.CloudControllerClientFactory;
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.http.client.ClientHttpRequestInterceptor;
+import org.springframework.security.oauth2.common.DefaultOAuth2AccessToken;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class FoundationTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final StageExecutor discover = new StageExecutor("discover", 1, 0, StageExecutor.Policy.DISCARD);
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final AtomicInteger cycles = new AtomicInteger();
+
+	private final Foundation foundation = createFoundation();
+
+	@After
+	public void shutdown() {
+		release.countDown();
+		discover.shutdownNow();
+	}
+
+	@Test
+	public void skipsACycleWhileThePreviousOneIsRunning() throws Exception {
+		CountDownLatch started = new CountDownLatch(1);
+		foundation.submit(discover, new Cycle(started));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+
+		foundation.submit(discover, new Cycle(null));
+		assertEquals(1, cycles.get());
+		assertEquals(0, discover.getRejections());
+
+		release.countDown();
+		assertTrue(discover.shutdown(5000));
+		StageExecutor next = new StageExecutor("discover", 0, 0, StageExecutor.Policy.DISCARD);
+		foundation.submit(next, new Cycle(null));
+		assertEquals(2, cycles.get());
+	}
+
+	@Test
+	public void runsTheNextCycleWhenTheStageDiscardedOne() throws Exception {
+		StageExecutor busy = new StageExecutor("busy", 1, 0, StageExecutor.Policy.DISCARD);
+		try {
+			CountDownLatch started = new CountDownLatch(1);
+			busy.submit(new Cycle(started));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+
+			foundation.submit(busy, new Cycle(null));
+			assertEquals(1, busy.getRejections());
+		} finally {
+			release.countDown();
+			busy.shutdownNow();
+		}
+		StageExecutor next = new StageExecutor("discover", 0, 0, StageExecutor.Policy.DISCARD);
+		foundation.submit(next, new Cycle(null));
+		assertEquals(2, cycles.get());
+	}
+
+	@Test
+	public void runsEveryClientRequestThroughTheLimiterOnce() throws Exception {
+		HttpServer cloudController = startCloudController();
+		ExecutorService requests = Executors.newSingleThreadExecutor();
+		try {
+			final CountingLimiter limiter = new CountingLimiter();
+			String url = "http://" + cloudController.getAddress().getHostString() + ":"
+					+ cloudController.getAddress().getPort();
+			final CloudControllerClientFactory factory = new CloudControllerClientFactory(null, false);
+			DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("token");
+			token.setExpiration(new Date(System.currentTimeMillis() + 3600000));
+			Foundation.newCloudController(factory, new URL(url), new CloudCredentials(token),
+					Collections.<ClientHttpRequestInterceptor> singletonList(limiter));
+			final String orgsUrl = url + "/v2/organizations";
+			// at a limit of 1 a request that took a second permit would wait for its own first one for good
+			requests.submit(new Runnable() {
+				@Override
+				public void run() {
+					factory.getRestTemplate().getForObject(orgsUrl, String.class);
+					factory.getRestTemplate().getForObject(orgsUrl, String.class);
+				}
+			}).get(5, TimeUnit.SECONDS);
+			assertEquals(2, limiter.acquired.get());
+			assertEquals(0, limiter.getInFlight());
+		} finally {
+			requests.shutdownNow();
+			cloudController.stop(0);
+		}
+	}
+
+	@Test
+	public void recordsEveryClientRequestOnce() throws Exception {
+		HttpServer cloudController = startCloudController();
+		try {
+			TrafficRecorder recorder = new TrafficRecorder(folder.newFile("traffic.bin"));
+			String url = "http://" + cloudController.getAddress().getHostString() + ":"
+					+ cloudController.getAddress().getPort();
+			CloudControllerClientFactory factory = new CloudControllerClientFactory(null, false);
+			DefaultOAuth2AccessToken token = new DefaultOAuth2AccessToken("token");
+			token.setExpiration(new Date(System.currentTimeMillis() + 3600000));
+			Foundation.newCloudController(factory, new URL(url), new CloudCredentials(token),
+					Arrays.<ClientHttpRequestInterceptor> asList(recorder, new CountingLimiter()));
+			for (int i = 0; i < 3; i++) {
+				factory.getRestTemplate().getForObject(url + "/v2/organizations", String.class);
+			}
+			recorder.close();
+			assertEquals(3, recorder.getExchanges());
+			assertEquals(3, TrafficRecorder.read(recorder.getFile()).size());
+		} finally {
+			cloudController.stop(0);
+		}
+	}
+
+	static HttpServer startCloudController() throws IOException {
+		HttpServer cloudController = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		final String url = "http://" + cloudController.getAddress().getHostString() + ":"
+				+ cloudController.getAddress().getPort();
+		cloudController.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String body = exchange.getRequestURI().getPath().endsWith("/info")
+						? "{\"name\":\"vcap\",\"authorization_endpoint\":\"" + url + "\"}"
+						: "{\"total_results\":0,\"resources\":[]}";
+				byte[] bytes = body.getBytes("UTF-8");
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, bytes.length);
+				OutputStream out = exchange.getResponseBody();
+				out.write(bytes);
+				out.close();
+			}
+		});
+		cloudController.start();
+		return cloudController;
+	}
+
+	private static Foundation createFoundation() {
+		FoundationProperties.Target target = new FoundationProperties.Target();
+		target.setName("east");
+		target.setTarget("https://api.east.example.com");
+		return new Foundation(target, false, new AdaptiveConcurrencyLimiter("east.cf", 4, 1, 64, 2000, 0.5),
+				new AdaptiveConcurrencyLimiter("east.uaa", 4, 1, 64, 1000, 0.5), new QuotaDefinitions(600000),
+				null, new ResponseCache("east.cf", 1024));
+	}
+
+	private static class CountingLimiter extends AdaptiveConcurrencyLimiter {
+
+		private final AtomicInteger acquired = new AtomicInteger();
+
+		CountingLimiter() {
+			super("test.cf", 1, 1, 1, 2000, 0.5);
+		}
+
+		@Override
+		void acquire() {
+			acquired.incrementAndGet();
+			super.acquire();
+		}
+	}
+
+	private class Cycle implements Runnable {
+
+		private final CountDownLatch started;
+
+		Cycle(CountDownLatch started) {
+			this.started = started;
+		}
+
+		@Override
+		public void run() {
+			cycles.incrementAndGet();
+			if (started != null) {
+				started.countDown();
+				try {
+					release.await();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,24 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertFalse;
+
+import org.junit.Test;
+import org.springframework.context.ConfigurableApplicationContext;
+
+public class HeadlessApplicationTests {
+
+	// keep the first cycle from calling out to Cloud Foundry
+	private static final String[] ARGS = { "--initialDelay=3600000", "--server.port=0" };
+
+	@Test
+	public void headlessStartupDefersPersistenceAndMail() {
+		ConfigurableApplicationContext context = Application.createApplication(true).run(ARGS);
+		try {
+			assertFalse(context.getBeanFactory().containsSingleton("entityManagerFactory"));
+			assertFalse(context.getBeanFactory().containsSingleton("mailSender"));
+		} finally {
+			context.close();
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.mock.env.MockEnvironment;
+
+public class InstrumentedDataSourceTests {
+
+	private InstrumentedDataSource dataSource;
+
+	@Before
+	public void createDataSource() {
+		dataSource = new InstrumentedDataSource(new MockEnvironment().withProperty("datasource.maxActive", "2"), 8);
+		dataSource.setUrl("jdbc:h2:mem:instrumented-data-source-tests");
+		dataSource.setDriverClassName("org.h2.Driver");
+		dataSource.setUsername("sa");
+		dataSource.setPassword("");
+	}
+
+	@After
+	public void closeDataSource() throws SQLException {
+		dataSource.close();
+	}
+
+	@Test
+	public void reusesPreparedStatementsAcrossCheckouts() throws SQLException {
+		for (int i = 0; i < 4; i++) {
+			Connection connection = dataSource.getConnection();
+			try {
+				PreparedStatement statement = connection.prepareStatement("SELECT ? FROM DUAL");
+				statement.setInt(1, i);
+				statement.executeQuery().close();
+				statement.close();
+			} finally {
+				connection.close();
+			}
+		}
+		assertEquals(4, dataSource.getCheckouts());
+		assertEquals(4, dataSource.getStatementRequests());
+		assertEquals(1, dataSource.getStatementsPrepared());
+		assertEquals(0.75, dataSource.getStatementCacheHitRatio(), 0.001);
+		assertEquals(1, dataSource.getNumIdle());
+	}
+
+	@Test
+	public void measuresTheWaitForAConnection() throws Exception {
+		dataSource.setMaxWait(5000);
+		Connection first = dataSource.getConnection();
+		Connection second = dataSource.getConnection();
+		try {
+			assertEquals(2, dataSource.getNumActive());
+			final CountDownLatch checkedOut = new CountDownLatch(1);
+			Thread waiter = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						dataSource.getConnection().close();
+						checkedOut.countDown();
+					} catch (SQLException e) {
+						throw new IllegalStateException(e);
+					}
+				}
+			});
+			waiter.start();
+			while (waiter.getState() != Thread.State.TIMED_WAITING && waiter.isAlive()) {
+				Thread.yield();
+			}
+			long blocked = System.nanoTime();
+			assertFalse(checkedOut.await(50, TimeUnit.MILLISECONDS));
+			long closed = System.nanoTime();
+			first.close();
+			assertTrue(checkedOut.await(5, TimeUnit.SECONDS));
+			// the wait started before the waiter was seen blocked and ended after the connection was returned
+			double blockedMillis = (closed - blocked) / 1000000.0;
+			assertTrue("Waited " + dataSource.getMaxCheckoutTime() + "ms, blocked " + blockedMillis + "ms",
+					dataSource.getMaxCheckoutTime() >= blockedMillis);
+			assertEquals(3, dataSource.getCheckouts());
+		} finally {
+			second.close();
+		}
+	}
+
+}
@@ -0,0 +1,101 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Collections;
+import java.util.UUID;
+
+import org.joda.time.DateTime;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mail.MailSender;
+import org.springframework.mail.SimpleMailMessage;
+import org.springframework.mock.env.MockEnvironment;
+
+public class MappedNotificationServiceTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final String org = UUID.randomUUID().toString();
+
+	private final String user = UUID.randomUUID().toString();
+
+	private final CountingMailSender mailSender = new CountingMailSender();
+
+	private MappedNotificationStore store;
+
+	private MappedNotificationService notificationService;
+
+	@Before
+	public void setUp() throws Exception {
+		store = new MappedNotificationStore(folder.getRoot(), 16);
+		MockEnvironment environment = new MockEnvironment();
+		environment.setProperty("mail.host", "localhost");
+		environment.setProperty("mail.subject", "quota");
+		environment.setProperty("notification.maxInterval", "168");
+		notificationService = new MappedNotificationService(environment, mailSender, null,
+				new CycleEvents(false, 0, 0, 0, null), store);
+	}
+
+	@After
+	public void close() throws Exception {
+		store.close();
+	}
+
+	@Test
+	public void notifiesOncePerBand() {
+		assertEquals(1, send(1));
+		assertEquals(0, send(1));
+		assertEquals(1, send(2));
+		assertEquals(0, send(2));
+		assertEquals(0, send(1));
+	}
+
+	@Test
+	public void notifiesAgainWhenUsageClimbsBackAfterRecovering() {
+		assertEquals(1, send(2));
+		notificationService.recordRecovery(Collections.singletonMap(org, 1));
+		assertEquals(0, send(1));
+		assertEquals(1, send(2));
+
+		notificationService.recordRecovery(Collections.singletonMap(org, 0));
+		assertEquals(1, send(1));
+	}
+
+	@Test
+	public void remindsOnlyAfterTheMaximumInterval() {
+		store.putLastSent(UUID.fromString(org), UUID.fromString(user), DateTime.now().minusHours(167).getMillis(), 2);
+		assertEquals(0, send(2));
+
+		store.putLastSent(UUID.fromString(org), UUID.fromString(user), DateTime.now().minusHours(169).getMillis(), 2);
+		assertEquals(1, send(2));
+		assertEquals(0, send(2));
+	}
+
+	private int send(int band) {
+		int sentBefore = mailSender.sent;
+		notificationService.sendNotification(org, user, "ops@example.com",
+				Collections.singletonList("manager@example.com"), "quota exceeded", band);
+		return mailSender.sent - sentBefore;
+	}
+
+	private static class CountingMailSender implements MailSender {
+
+		private int sent;
+
+		@Override
+		public void send(SimpleMailMessage simpleMessage) {
+			sent++;
+		}
+
+		@Override
+		public void send(SimpleMailMessage... simpleMessages) {
+			sent += simpleMessages.length;
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Field;
+import java.nio.channels.FileLock;
+import java.util.Collections;
+import java.util.UUID;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+public class MappedNotificationStoreTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private final UUID org = UUID.randomUUID();
+
+	private final UUID user = UUID.randomUUID();
+
+	@Test
+	public void lastSentIsKeptPerOrgAndUser() throws Exception {
+		MappedNotificationStore store = new MappedNotificationStore(folder.getRoot(), 16);
+		store.putLastSent(org, user, 1000, 1);
+		store.putLastSent(org, user, 2000, 1);
+
+		assertEquals(2000, store.getLastSent(org, user));
+		assertEquals(MappedNotificationStore.NOT_SENT, store.getLastSent(org, UUID.randomUUID()));
+		assertEquals(1, store.size());
+		store.close();
+	}
+
+	@Test
+	public void compareAndPutOnlyUpdatesTheLastSentTimeItWasGiven() throws Exception {
+		MappedNotificationStore store = new MappedNotificationStore(folder.getRoot(), 16);
+
+		assertTrue(store.compareAndPutLastSent(org, user, MappedNotificationStore.NOT_SENT, 1000, 1));
+		assertFalse(store.compareAndPutLastSent(org, user, MappedNotificationStore.NOT_SENT, 2000, 1));
+		assertTrue(store.compareAndPutLastSent(org, user, 1000, 3000, 2));
+
+		assertEquals(3000, store.getLastSent(org, user));
+		assertEquals(2, store.getBand(org, user));
+		store.close();
+	}
+
+	@Test
+	public void lowersBandsOfRecoveredOrgs() throws Exception {
+		UUID otherOrg = UUID.randomUUID();
+		MappedNotificationStore store = new MappedNotificationStore(folder.getRoot(), 16);
+		store.putLastSent(org, user, 1000, 3);
+		store.putLastSent(otherOrg, user, 1000, 3);
+
+		assertEquals(1, store.lowerBands(Collections.singletonMap(org, 1)));
+		assertEquals(0, store.lowerBands(Collections.singletonMap(org, 2)));
+		store.close();
+
+		store = new MappedNotificationStore(folder.getRoot(), 16);
+		assertEquals(1, store.getBand(org, user));
+		assertEquals(1000, store.getLastSent(org, user));
+		assertEquals(3, store.getBand(otherOrg, user));
+		store.close();
+	}
+
+	@Test
+	public void survivesRestart() throws Exception {
+		MappedNotificationStore store = new MappedNotificationStore(folder.getRoot(), 16);
+		store.putLastSent(org, user, 1000, 1);
+		store.close();
+
+		store = new MappedNotificationStore(folder.getRoot(), 16);
+		assertEquals(1000, store.getLastSent(org, user));
+		store.close();
+	}
+
+	@Test
+	public void recoversFromLogAfterCrash() throws Exception {
+		MappedNotificationStore store = new MappedNotificationStore(folder.getRoot(), 16);
+		store.putLastSent(org, user, 1000, 1);
+		store.putLastSent(org, UUID.randomUUID(), 3000, 1);
+		// simulate a crash in the middle of the last append
+		File log = new File(folder.getRoot(), "notifications.log");
+		RandomAccessFile file = new RandomAccessFile(log, "rw");
+		file.setLength(file.length() - 5);
+		file.close();
+		abandon(store);
+
+		store = new MappedNotificationStore(folder.getRoot(), 16);
+		assertEquals(1000, store.getLastSent(org, user));
+		assertEquals(1, store.size());
+		store.close();
+	}
+
+	@Test
+	public void growsAndCompacts() throws Exception {
+		MappedNotificationStore store = new MappedNotificationStore(folder.getRoot(), 16);
+		UUID[] users = new UUID[1000];
+		for (int i = 0; i < users.length; i++) {
+			users[i] = UUID.randomUUID();
+		}
+		for (int round = 1; round <= 3; round++) {
+			for (UUID each : users) {
+				store.putLastSent(org, each, round, 1);
+			}
+		}
+		assertEquals(users.length, store.size());
+		store.close();
+
+		store = new MappedNotificationStore(folder.getRoot(), 16);
+		for (UUID each : users) {
+			assertEquals(3, store.getLastSent(org, each));
+		}
+		store.close();
+	}
+
+	private void abandon(MappedNotificationStore store) throws Exception {
+		// release the log lock without the clean shutdown marker, as a killed process would
+		Field lock = MappedNotificationStore.class.getDeclaredField("logLock");
+		lock.setAccessible(true);
+		((FileLock) lock.get(store)).channel().close();
+	}
+
+}
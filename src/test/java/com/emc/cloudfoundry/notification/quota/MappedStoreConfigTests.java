@@ -0,0 +1,42 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class MappedStoreConfigTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test(expected = NotificationException.class)
+	public void requiresADirectory() throws Exception {
+		config(new MockEnvironment()).getDirectory();
+	}
+
+	@Test(expected = NotificationException.class)
+	public void rejectsTheContainerDiskOnCloudFoundry() throws Exception {
+		config(new MockEnvironment().withProperty("VCAP_APPLICATION", "{}")
+				.withProperty("mapped.directory", "/home/vcap/app/state")).getDirectory();
+	}
+
+	@Test
+	public void acceptsAnyDirectoryOffCloudFoundry() throws Exception {
+		File directory = folder.newFolder("state");
+		assertEquals(directory.getCanonicalFile(), config(new MockEnvironment()
+				.withProperty("mapped.directory", directory.getPath())).getDirectory());
+	}
+
+	private static MappedStoreConfig config(MockEnvironment environment) {
+		MappedStoreConfig config = new MappedStoreConfig();
+		ReflectionTestUtils.setField(config, "environment", environment);
+		return config;
+	}
+
+}
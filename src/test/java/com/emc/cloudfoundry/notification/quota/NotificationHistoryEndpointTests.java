@@ -0,0 +1,73 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.hamcrest.Matchers.startsWith;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import javax.servlet.Filter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.security.crypto.codec.Base64;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+@WebAppConfiguration
+@ActiveProfiles(WebApplicationInitializer.IN_MEMORY_PROFILE)
+@TestPropertySource(properties = { "initialDelay=3600000", "endpoints.export.enabled=true",
+		"security.user.name=admin", "security.user.password=secret" })
+public class NotificationHistoryEndpointTests {
+
+	@Autowired
+	private WebApplicationContext context;
+
+	@Autowired
+	private Filter springSecurityFilterChain;
+
+	@Autowired
+	private NotificationHistoryExporter exporter;
+
+	private MockMvc mvc;
+
+	@Before
+	public void setUp() {
+		mvc = MockMvcBuilders.webAppContextSetup(context).addFilters(springSecurityFilterChain).build();
+	}
+
+	@Test
+	public void requiresTheManagementRole() throws Exception {
+		mvc.perform(get("/notifications/export")).andExpect(status().isUnauthorized());
+		mvc.perform(get("/notifications/export").header("Authorization", basic("admin:wrong")))
+				.andExpect(status().isUnauthorized());
+		mvc.perform(get("/notifications/export").header("Authorization", basic("admin:secret")))
+				.andExpect(status().isOk())
+				.andExpect(content().string(startsWith("orgGuid,userGuid,email,lastSent,archived,message\r\n")));
+	}
+
+	@Test
+	public void rejectsExportsBeyondTheLimit() throws Exception {
+		exporter.tryAcquire();
+		try {
+			mvc.perform(get("/notifications/export").header("Authorization", basic("admin:secret")))
+					.andExpect(status().isServiceUnavailable());
+		} finally {
+			exporter.release();
+		}
+	}
+
+	private static String basic(String credentials) {
+		return "Basic " + new String(Base64.encode(credentials.getBytes()));
+	}
+
+}
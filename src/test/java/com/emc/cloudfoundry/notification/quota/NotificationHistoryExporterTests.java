@@ -0,0 +1,80 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringWriter;
+
+import javax.sql.DataSource;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+@ActiveProfiles(WebApplicationInitializer.IN_MEMORY_PROFILE)
+@TestPropertySource(properties = { "initialDelay=3600000", "export.fetchSize=1" })
+public class NotificationHistoryExporterTests {
+
+	@Autowired
+	private NotificationHistoryExporter exporter;
+
+	@Autowired
+	private NotificationRepository notificationRepository;
+
+	@Autowired
+	private DataSource dataSource;
+
+	@Before
+	public void save() {
+		notificationRepository.deleteAll();
+		for (int i = 0; i < 3; i++) {
+			Notification notification = new Notification(new NotificationPk("org", "user-" + i), "user" + i + "@example.com");
+			notification.setMessage(("Hi \"user\",\nyou are at " + i + "0%").getBytes());
+			notification.setLastSent(DateTime.now());
+			notificationRepository.save(notification);
+		}
+	}
+
+	@Test
+	public void exportsCsv() throws Exception {
+		StringWriter writer = new StringWriter();
+
+		assertEquals(3, exporter.export(NotificationHistoryExporter.Format.CSV, writer));
+
+		String csv = writer.toString();
+		assertTrue(csv.startsWith("orgGuid,userGuid,email,lastSent,archived,message\r\n"));
+		assertTrue(csv.contains("org,user-1,user1@example.com,"));
+		assertTrue(csv.contains(",,\"Hi \"\"user\"\",\nyou are at 10%\"\r\n"));
+	}
+
+	@Test
+	public void exportsOneJsonObjectPerLine() throws Exception {
+		StringWriter writer = new StringWriter();
+
+		exporter.export(NotificationHistoryExporter.Format.NDJSON, writer);
+
+		String[] lines = writer.toString().split("\n");
+		assertEquals(3, lines.length);
+		assertTrue(lines[2].startsWith("{\"orgGuid\":\"org\",\"userGuid\":\"user-2\""));
+		assertTrue(lines[2].endsWith("\"archived\":null,\"message\":\"Hi \\\"user\\\",\\nyou are at 20%\"}"));
+	}
+
+	@Test(expected = IOException.class)
+	public void abortsAnExportThatExceedsTheTimeout() throws Exception {
+		NotificationHistoryExporter exporter = new NotificationHistoryExporter(dataSource,
+				new MockEnvironment().withProperty("export.timeout", "-1"));
+
+		exporter.export(NotificationHistoryExporter.Format.CSV, new StringWriter());
+	}
+
+}
@@ -3,10 +3,12 @@ package com.emc.cloudfoundry.notification.quota;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.TestPropertySource;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @SpringApplicationConfiguration(classes = Application.class)
+@TestPropertySource(properties = "initialDelay=3600000")
 public class NotificationQuotaApplicationTests {
 
 	@Test
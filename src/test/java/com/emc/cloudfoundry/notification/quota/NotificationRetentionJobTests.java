@@ -0,0 +1,80 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import org.joda.time.DateTime;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+@ActiveProfiles(WebApplicationInitializer.IN_MEMORY_PROFILE)
+@TestPropertySource(properties = { "initialDelay=3600000", "retention.initialDelay=3600000", "retention.days=30",
+		"retention.batchSize=2", "retention.batchPause=0", "retention.mode=archive" })
+public class NotificationRetentionJobTests {
+
+	@Autowired
+	private NotificationRetentionJob retentionJob;
+
+	@Autowired
+	private NotificationRepository notificationRepository;
+
+	@Autowired
+	private ArchivedNotificationRepository archivedNotificationRepository;
+
+	@Before
+	public void clear() {
+		notificationRepository.deleteAll();
+		archivedNotificationRepository.deleteAll();
+	}
+
+	@Test
+	public void archivesNotificationsOutsideTheRetentionWindowInBatches() {
+		for (int i = 0; i < 5; i++) {
+			save("expired-" + i, DateTime.now().minusDays(31 + i));
+		}
+		save("recent", DateTime.now().minusDays(29));
+
+		retentionJob.purge();
+
+		assertEquals(1, notificationRepository.count());
+		assertNotNull(notificationRepository.findOne(new NotificationPk("org", "recent")));
+		assertNull(notificationRepository.findOne(new NotificationPk("org", "expired-0")));
+		assertEquals(5, archivedNotificationRepository.count());
+		ArchivedNotification archived = archivedNotificationRepository.findAll().iterator().next();
+		assertEquals("org", archived.getOrgGuId());
+		assertEquals(archived.getUserGuid() + "@example.com", archived.getEmail());
+		assertArrayEquals("quota exceeded".getBytes(), archived.getMessage());
+		assertNotNull(archived.getArchived());
+	}
+
+	@Test
+	public void keepsRowsSentAtTheSameTimeInOneBatch() {
+		DateTime lastSent = DateTime.now().minusDays(40).withMillisOfSecond(0);
+		for (int i = 0; i < 3; i++) {
+			save("tied-" + i, lastSent);
+		}
+
+		retentionJob.purge();
+
+		assertEquals(0, notificationRepository.count());
+		assertEquals(3, archivedNotificationRepository.count());
+	}
+
+	private void save(String userGuid, DateTime lastSent) {
+		Notification notification = new Notification(new NotificationPk("org", userGuid), userGuid + "@example.com");
+		notification.setMessage("quota exceeded".getBytes());
+		notification.setLastSent(lastSent);
+		notificationRepository.save(notification);
+	}
+
+}
@@ -0,0 +1,104 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class OrgEvaluatorTests {
+
+	private final ExecutorService executor = Executors.newFixedThreadPool(4);
+
+	private final AtomicInteger evaluations = new AtomicInteger();
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	@After
+	public void shutdown() {
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void coalescesConcurrentRequestsAndCachesTheResult() throws Exception {
+		final OrgEvaluator evaluator = new BlockingEvaluator(60000);
+		Callable<OrgEvaluation> request = new Callable<OrgEvaluation>() {
+			@Override
+			public OrgEvaluation call() {
+				return evaluator.evaluate("org-guid", false);
+			}
+		};
+		Future<OrgEvaluation> first = executor.submit(request);
+		Future<OrgEvaluation> second = executor.submit(request);
+		Future<OrgEvaluation> third = executor.submit(request);
+		Thread.sleep(100);
+		release.countDown();
+
+		OrgEvaluation evaluation = first.get(5, TimeUnit.SECONDS);
+		assertSame(evaluation, second.get(5, TimeUnit.SECONDS));
+		assertSame(evaluation, third.get(5, TimeUnit.SECONDS));
+		assertSame(evaluation, evaluator.evaluate("org-guid", false));
+		assertEquals(1, evaluations.get());
+
+		evaluator.evaluate("org-guid", true);
+		assertEquals(2, evaluations.get());
+	}
+
+	@Test
+	public void evaluatesAgainOnceTheResultExpired() throws Exception {
+		release.countDown();
+		OrgEvaluator evaluator = new BlockingEvaluator(0);
+		evaluator.evaluate("org-guid", false);
+		Thread.sleep(5);
+		evaluator.evaluate("org-guid", false);
+		assertEquals(2, evaluations.get());
+	}
+
+	@Test
+	public void remembersOrgsNoFoundationHas() throws Exception {
+		release.countDown();
+		OrgEvaluator evaluator = new BlockingEvaluator(60000);
+		assertNull(evaluator.evaluate("unknown-guid", false));
+		assertNull(evaluator.evaluate("unknown-guid", true));
+		assertEquals(1, evaluations.get());
+
+		OrgEvaluator expiring = new BlockingEvaluator(0);
+		expiring.evaluate("unknown-guid", false);
+		Thread.sleep(5);
+		expiring.evaluate("unknown-guid", false);
+		assertEquals(3, evaluations.get());
+	}
+
+	private class BlockingEvaluator extends OrgEvaluator {
+
+		BlockingEvaluator(long cacheTtl) {
+			super(cacheTtl);
+		}
+
+		@Override
+		protected OrgEvaluation evaluateNow(String orgGuid, boolean dispatch) {
+			evaluations.incrementAndGet();
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			if (orgGuid.startsWith("unknown")) {
+				return null;
+			}
+			OrgUsage usage = new OrgUsage("east", orgGuid, "org", 900, 1000, 90, Collections.<SpaceUsage> emptyList());
+			return new OrgEvaluation(usage, 2, dispatch, System.currentTimeMillis());
+		}
+	}
+
+}
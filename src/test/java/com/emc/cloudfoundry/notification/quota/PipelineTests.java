@@ -0,0 +1,130 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.domain.CloudApplication;
+import org.cloudfoundry.client.lib.domain.CloudEntity;
+import org.cloudfoundry.client.lib.domain.CloudOrganization;
+import org.cloudfoundry.client.lib.domain.CloudQuota;
+import org.cloudfoundry.client.lib.domain.CloudSpace;
+import org.junit.After;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class PipelineTests {
+
+	private static final int ORGS = 4;
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private final ExecutorService cycles = Executors.newFixedThreadPool(2);
+
+	private Pipeline pipeline;
+
+	@After
+	public void shutdown() {
+		release.countDown();
+		cycles.shutdownNow();
+		if (pipeline != null) {
+			pipeline.shutdown();
+		}
+	}
+
+	@Test
+	public void aSlowFoundationDoesNotHoldUpTheMeasuringOfAnother() throws Exception {
+		MockEnvironment environment = new MockEnvironment();
+		environment.setProperty("pipeline.measure.threads", "2");
+		environment.setProperty("pipeline.measure.perFoundation", "1");
+		pipeline = new Pipeline(environment);
+		final Application application = createApplication(pipeline);
+
+		final Semaphore slowCalls = new Semaphore(0);
+		final Foundation slow = foundation("slow", new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) throws InterruptedException {
+				slowCalls.release();
+				release.await();
+				return 1024;
+			}
+		});
+		final Foundation fast = foundation("fast", new Answer<Integer>() {
+			@Override
+			public Integer answer(InvocationOnMock invocation) {
+				return 1024;
+			}
+		});
+
+		Future<?> slowCycle = cycles.submit(new Runnable() {
+			@Override
+			public void run() {
+				application.checkQuota(slow);
+			}
+		});
+		assertTrue(slowCalls.tryAcquire(5, TimeUnit.SECONDS));
+		Future<?> fastCycle = cycles.submit(new Runnable() {
+			@Override
+			public void run() {
+				application.checkQuota(fast);
+			}
+		});
+
+		// the slow foundation holds one of the two measure threads, the fast one gets the other
+		fastCycle.get(5, TimeUnit.SECONDS);
+		assertEquals(0, slowCalls.availablePermits());
+		assertFalse(slowCycle.isDone());
+		release.countDown();
+		slowCycle.get(5, TimeUnit.SECONDS);
+		assertEquals(ORGS - 1, slowCalls.availablePermits());
+	}
+
+	private static Application createApplication(Pipeline pipeline) {
+		Application application = new Application();
+		ReflectionTestUtils.setField(application, "usageBands", new UsageBands(80, 10, 5));
+		ReflectionTestUtils.setField(application, "cycleEvents", new CycleEvents(false, 0, 0, 0, null));
+		ReflectionTestUtils.setField(application, "orgOwners", new OrgOwners(Long.MAX_VALUE / 2));
+		ReflectionTestUtils.setField(application, "usageSnapshots", new UsageSnapshots());
+		ReflectionTestUtils.setField(application, "notificationService", mock(NotificationService.class));
+		ReflectionTestUtils.setField(application, "pipeline", pipeline);
+		return application;
+	}
+
+	private static Foundation foundation(String name, Answer<Integer> memoryUsage) {
+		CloudQuota quota = new CloudQuota(new CloudEntity.Meta(UUID.randomUUID(), null, null), "default");
+		quota.setMemoryLimit(10240);
+		List<CloudOrganization> orgs = new ArrayList<CloudOrganization>();
+		for (int i = 0; i < ORGS; i++) {
+			orgs.add(new CloudOrganization(new CloudEntity.Meta(UUID.randomUUID(), null, null), name + "-" + i, quota,
+					false));
+		}
+		CloudFoundryOperations client = mock(CloudFoundryOperations.class);
+		when(client.getMemoryUsageForOrg(any(UUID.class))).thenAnswer(memoryUsage);
+		Foundation foundation = mock(Foundation.class);
+		when(foundation.getName()).thenReturn(name);
+		when(foundation.getCloudFoundryClient()).thenReturn(client);
+		when(foundation.listOrganizations()).thenReturn(orgs);
+		when(foundation.listSpaces()).thenReturn(Collections.<CloudSpace> emptyList());
+		when(foundation.listApplications()).thenReturn(Collections.<CloudApplication> emptyList());
+		return foundation;
+	}
+
+}
@@ -0,0 +1,72 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.UUID;
+
+import org.cloudfoundry.client.lib.CloudFoundryOperations;
+import org.cloudfoundry.client.lib.domain.CloudEntity;
+import org.cloudfoundry.client.lib.domain.CloudQuota;
+import org.junit.Test;
+
+public class QuotaDefinitionsTests {
+
+	private final CloudFoundryOperations client = mock(CloudFoundryOperations.class);
+
+	private final CloudQuota small = quota("small", 1024);
+
+	private final CloudQuota large = quota("large", 10240);
+
+	@Test
+	public void fetchesAllQuotaDefinitionsOnce() {
+		when(client.getQuotas()).thenReturn(Arrays.asList(small, large));
+		QuotaDefinitions quotaDefinitions = new QuotaDefinitions(600000);
+
+		assertEquals(1024, quotaDefinitions.get(client, guid(small)).getMemoryLimit());
+		assertEquals(10240, quotaDefinitions.get(client, guid(large)).getMemoryLimit());
+		assertEquals(1024, quotaDefinitions.get(client, guid(small)).getMemoryLimit());
+		verify(client, times(1)).getQuotas();
+	}
+
+	@Test
+	public void refetchesAfterInvalidation() {
+		when(client.getQuotas()).thenReturn(Arrays.asList(small)).thenReturn(Arrays.asList(small, large));
+		QuotaDefinitions quotaDefinitions = new QuotaDefinitions(600000);
+
+		// an unknown guid right after a refresh does not refresh again
+		assertNull(quotaDefinitions.get(client, guid(large)));
+		quotaDefinitions.invalidate();
+		assertEquals(10240, quotaDefinitions.get(client, guid(large)).getMemoryLimit());
+		verify(client, times(2)).getQuotas();
+	}
+
+	@Test
+	public void countsRefreshesSoCallersCanTellNothingChanged() {
+		when(client.getQuotas()).thenReturn(Arrays.asList(small, large));
+		QuotaDefinitions quotaDefinitions = new QuotaDefinitions(600000);
+
+		long refreshes = quotaDefinitions.refreshIfStale(client);
+		quotaDefinitions.get(client, guid(small));
+		assertEquals(refreshes, quotaDefinitions.refreshIfStale(client));
+		quotaDefinitions.invalidate();
+		assertEquals(refreshes + 1, quotaDefinitions.refreshIfStale(client));
+		verify(client, times(2)).getQuotas();
+	}
+
+	private static CloudQuota quota(String name, long memoryLimit) {
+		CloudQuota quota = new CloudQuota(new CloudEntity.Meta(UUID.randomUUID(), null, null), name);
+		quota.setMemoryLimit(memoryLimit);
+		return quota;
+	}
+
+	private static String guid(CloudQuota quota) {
+		return quota.getMeta().getGuid().toString();
+	}
+
+}
@@ -0,0 +1,35 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+public class RecordedBandsTests {
+
+	private final RecordedBands recordedBands = new RecordedBands();
+
+	@Test
+	public void recordsARecoveryOnlyWhenTheBandDropped() {
+		// not seen since startup
+		assertTrue(recordedBands.recovering("org", 2));
+		assertFalse(recordedBands.recovering("org", 2));
+		assertFalse(recordedBands.recovering("org", 3));
+		assertTrue(recordedBands.recovering("org", 1));
+		assertFalse(recordedBands.recovering("org", 1));
+
+		recordedBands.notifying("org", 2);
+		assertFalse(recordedBands.recovering("org", 2));
+		assertTrue(recordedBands.recovering("org", 0));
+	}
+
+	@Test
+	public void recordsTheRecoveryOfForgottenOrgsAgain() {
+		assertTrue(recordedBands.recovering("org", 0));
+		recordedBands.forget(Collections.singleton("org"));
+		assertTrue(recordedBands.recovering("org", 0));
+	}
+
+}
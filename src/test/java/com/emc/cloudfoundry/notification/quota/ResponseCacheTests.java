@@ -0,0 +1,175 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.springframework.http.HttpMethod;
+import org.springframework.http.client.ClientHttpResponse;
+import org.springframework.util.StreamUtils;
+import org.springframework.web.client.ResponseExtractor;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class ResponseCacheTests {
+
+	private HttpServer foundation;
+
+	private String foundationUrl;
+
+	private final AtomicInteger notModified = new AtomicInteger();
+
+	private volatile String plainBody = "{\"total_results\":1}";
+
+	@Before
+	public void startFoundation() throws IOException {
+		foundation = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		foundation.createContext("/validated", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				if ("\"v1\"".equals(exchange.getRequestHeaders().getFirst("If-None-Match"))) {
+					notModified.incrementAndGet();
+					exchange.sendResponseHeaders(304, -1);
+					exchange.close();
+					return;
+				}
+				exchange.getResponseHeaders().set("ETag", "\"v1\"");
+				respond(exchange, "{\"total_results\":2}");
+			}
+		});
+		foundation.createContext("/plain", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				respond(exchange, plainBody);
+			}
+		});
+		foundation.start();
+		foundationUrl = "http://" + foundation.getAddress().getHostString() + ":" + foundation.getAddress().getPort();
+	}
+
+	@After
+	public void stopFoundation() {
+		foundation.stop(0);
+	}
+
+	@Test
+	public void revalidatesResponsesWithAValidator() {
+		ResponseCache cache = new ResponseCache("test", 1024 * 1024);
+		RestTemplate restTemplate = restTemplate(cache);
+		assertEquals("{\"total_results\":2}", restTemplate.getForObject(foundationUrl + "/validated", String.class));
+		assertEquals("{\"total_results\":2}", restTemplate.getForObject(foundationUrl + "/validated", String.class));
+		assertEquals(1, notModified.get());
+		assertEquals(1, cache.getMisses());
+		assertEquals(1, cache.getRevalidated());
+		assertEquals(0.5, cache.getHitRatio(), 0.001);
+	}
+
+	@Test
+	public void reusesWhatWasParsedWhileTheBodyIsUnchanged() {
+		ResponseCache cache = new ResponseCache("test", 1024 * 1024);
+		RestTemplate restTemplate = restTemplate(cache);
+		URI uri = URI.create(foundationUrl + "/plain");
+		Object first = restTemplate.execute(uri, HttpMethod.GET, null, new ParsingExtractor(cache, uri));
+		assertSame(first, restTemplate.execute(uri, HttpMethod.GET, null, new ParsingExtractor(cache, uri)));
+		assertEquals(1, cache.getUnchanged());
+		assertEquals(0, cache.getHits());
+		assertEquals(0, cache.getHitRatio(), 0.001);
+		assertEquals(0.5, cache.getUnchangedRatio(), 0.001);
+
+		plainBody = "{\"total_results\":3}";
+		Object changed = restTemplate.execute(uri, HttpMethod.GET, null, new ParsingExtractor(cache, uri));
+		assertEquals("{\"total_results\":3}", changed);
+		assertEquals(2, cache.getMisses());
+		assertEquals(1, cache.getEntries());
+	}
+
+	@Test
+	public void evictsTheLeastRecentlyUsedEntries() {
+		// room for the digests of two bodies
+		ResponseCache cache = new ResponseCache("test", 500);
+		RestTemplate restTemplate = restTemplate(cache);
+		restTemplate.getForObject(foundationUrl + "/plain?page=1", String.class);
+		restTemplate.getForObject(foundationUrl + "/plain?page=2", String.class);
+		restTemplate.getForObject(foundationUrl + "/plain?page=1", String.class);
+		restTemplate.getForObject(foundationUrl + "/plain?page=3", String.class);
+		assertEquals(2, cache.getEntries());
+		assertEquals(1, cache.getEvictions());
+
+		restTemplate.getForObject(foundationUrl + "/plain?page=1", String.class);
+		assertEquals(2, cache.getUnchanged());
+		restTemplate.getForObject(foundationUrl + "/plain?page=2", String.class);
+		assertEquals(2, cache.getUnchanged());
+		assertEquals(4, cache.getMisses());
+	}
+
+	@Test
+	public void doesNotAttachToAResponseThatChangedSince() throws IOException {
+		ResponseCache cache = new ResponseCache("test", 1024 * 1024);
+		RestTemplate restTemplate = restTemplate(cache);
+		URI uri = URI.create(foundationUrl + "/plain");
+		ClientHttpResponse stale = restTemplate.execute(uri, HttpMethod.GET, null, new KeepingExtractor());
+		plainBody = "{\"total_results\":4}";
+		restTemplate.getForObject(uri, String.class);
+		cache.putParsed(uri, stale, "stale");
+		assertNull(cache.getParsed(uri, stale));
+	}
+
+	private static RestTemplate restTemplate(ResponseCache cache) {
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.getInterceptors().add(cache);
+		return restTemplate;
+	}
+
+	private static void respond(HttpExchange exchange, String body) throws IOException {
+		byte[] bytes = body.getBytes("UTF-8");
+		exchange.getResponseHeaders().set("Content-Type", "application/json");
+		exchange.sendResponseHeaders(200, bytes.length);
+		OutputStream out = exchange.getResponseBody();
+		out.write(bytes);
+		out.close();
+	}
+
+	private static class ParsingExtractor implements ResponseExtractor<Object> {
+
+		private final ResponseCache cache;
+
+		private final URI uri;
+
+		ParsingExtractor(ResponseCache cache, URI uri) {
+			this.cache = cache;
+			this.uri = uri;
+		}
+
+		@Override
+		public Object extractData(ClientHttpResponse response) throws IOException {
+			Object parsed = cache.getParsed(uri, response);
+			if (parsed == null) {
+				parsed = new String(StreamUtils.copyToByteArray(response.getBody()), "UTF-8");
+				cache.putParsed(uri, response, parsed);
+			}
+			return parsed;
+		}
+	}
+
+	private static class KeepingExtractor implements ResponseExtractor<ClientHttpResponse> {
+
+		@Override
+		public ClientHttpResponse extractData(ClientHttpResponse response) {
+			return response;
+		}
+	}
+
+}
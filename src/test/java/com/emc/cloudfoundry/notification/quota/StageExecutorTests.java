@@ -0,0 +1,147 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.After;
+import org.junit.Test;
+
+public class StageExecutorTests {
+
+	private final CountDownLatch release = new CountDownLatch(1);
+
+	private StageExecutor stage;
+
+	@After
+	public void shutdown() {
+		release.countDown();
+		if (stage != null) {
+			stage.shutdownNow();
+		}
+	}
+
+	@Test
+	public void blocksTheSubmitterWhileTheQueueIsFull() throws Exception {
+		stage = new StageExecutor("test", 1, 1, StageExecutor.Policy.BLOCK);
+		final CountDownLatch started = new CountDownLatch(1);
+		stage.submit(new Blocking(started));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		stage.submit(new Blocking(null));
+		assertEquals(1, stage.getQueueDepth());
+		assertEquals(1, stage.getActiveThreads());
+
+		final CountDownLatch submitted = new CountDownLatch(1);
+		Thread upstream = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				stage.submit(new Blocking(null));
+				submitted.countDown();
+			}
+		});
+		upstream.start();
+		assertFalse(submitted.await(200, TimeUnit.MILLISECONDS));
+		release.countDown();
+		assertTrue(submitted.await(5, TimeUnit.SECONDS));
+		assertEquals(1, stage.getRejections());
+		assertTrue(stage.shutdown(5000));
+		assertEquals(3, stage.getCompleted());
+	}
+
+	@Test
+	public void rejectsASubmitterWaitingForRoomWhenShutDown() throws Exception {
+		stage = new StageExecutor("test", 1, 1, StageExecutor.Policy.BLOCK);
+		CountDownLatch started = new CountDownLatch(1);
+		stage.submit(new Blocking(started));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		stage.submit(new Blocking(null));
+
+		final CountDownLatch rejected = new CountDownLatch(1);
+		final CountDownLatch waiting = new CountDownLatch(1);
+		Thread upstream = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				waiting.countDown();
+				try {
+					stage.submit(new Blocking(null));
+				} catch (RejectedExecutionException e) {
+					rejected.countDown();
+				}
+			}
+		});
+		upstream.start();
+		assertTrue(waiting.await(5, TimeUnit.SECONDS));
+		assertFalse(rejected.await(200, TimeUnit.MILLISECONDS));
+		stage.shutdownNow();
+		assertTrue(rejected.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void runsOnTheSubmitterOrDiscardsWhenTheQueueIsFull() throws Exception {
+		stage = new StageExecutor("test", 1, 0, StageExecutor.Policy.CALLER_RUNS);
+		CountDownLatch started = new CountDownLatch(1);
+		stage.submit(new Blocking(started));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+		final AtomicReference<Thread> ranOn = new AtomicReference<Thread>();
+		assertTrue(stage.submit(new Runnable() {
+			@Override
+			public void run() {
+				ranOn.set(Thread.currentThread());
+			}
+		}));
+		assertSame(Thread.currentThread(), ranOn.get());
+
+		StageExecutor discarding = new StageExecutor("discarding", 1, 0, StageExecutor.Policy.DISCARD);
+		try {
+			started = new CountDownLatch(1);
+			discarding.submit(new Blocking(started));
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			assertFalse(discarding.submit(new Blocking(null)));
+			assertEquals(1, discarding.getRejections());
+		} finally {
+			discarding.shutdownNow();
+		}
+	}
+
+	@Test
+	public void keepsRunningTasksAfterOneFailed() throws Exception {
+		stage = new StageExecutor("test", 1, 4, StageExecutor.Policy.BLOCK);
+		stage.submit(new Runnable() {
+			@Override
+			public void run() {
+				throw new NotificationException("Failed");
+			}
+		});
+		CountDownLatch started = new CountDownLatch(1);
+		stage.submit(new Blocking(started));
+		assertTrue(started.await(5, TimeUnit.SECONDS));
+	}
+
+	private class Blocking implements Runnable {
+
+		private final CountDownLatch started;
+
+		Blocking(CountDownLatch started) {
+			this.started = started;
+		}
+
+		@Override
+		public void run() {
+			if (started != null) {
+				started.countDown();
+			}
+			try {
+				release.await();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+}
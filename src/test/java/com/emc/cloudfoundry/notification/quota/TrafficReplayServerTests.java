@@ -0,0 +1,143 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.web.client.HttpClientErrorException;
+import org.springframework.web.client.RestTemplate;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+public class TrafficReplayServerTests {
+
+	private static final long LATENCY = 100;
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private HttpServer foundation;
+
+	private String foundationUrl;
+
+	private final AtomicInteger page = new AtomicInteger();
+
+	@Before
+	public void startFoundation() throws IOException {
+		foundation = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		foundation.createContext("/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				String body;
+				if (exchange.getRequestURI().getPath().equals("/v2/info")) {
+					body = "{\"name\":\"vcap\",\"authorization_endpoint\":\"https://login.example.com\"}";
+				} else {
+					body = "{\"total_results\":" + page.incrementAndGet() + "}";
+					try {
+						Thread.sleep(LATENCY);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				exchange.getResponseHeaders().set("Content-Type", "application/json");
+				exchange.sendResponseHeaders(200, body.length());
+				OutputStream out = exchange.getResponseBody();
+				out.write(body.getBytes("UTF-8"));
+				out.close();
+			}
+		});
+		foundation.start();
+		foundationUrl = "http://" + foundation.getAddress().getHostString() + ":" + foundation.getAddress().getPort();
+	}
+
+	@After
+	public void stopFoundation() {
+		foundation.stop(0);
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void replaysRecordedResponsesInTurnWithTheirLatency() throws Exception {
+		File file = new File(folder.getRoot(), "test.traffic");
+		TrafficRecorder recorder = new TrafficRecorder(file);
+		RestTemplate restTemplate = new RestTemplate();
+		restTemplate.getInterceptors().add(recorder);
+		restTemplate.getForObject(foundationUrl + "/v2/info", Map.class);
+		assertEquals(1, restTemplate.getForObject(foundationUrl + "/v2/organizations?page=1", Map.class).get("total_results"));
+		assertEquals(2, restTemplate.getForObject(foundationUrl + "/v2/organizations?page=1", Map.class).get("total_results"));
+		recorder.close();
+		assertEquals(3, recorder.getExchanges());
+
+		TrafficReplayServer replayServer = new TrafficReplayServer(file, 0, 1);
+		try {
+			RestTemplate client = new RestTemplate();
+			Map<String, Object> info = client.getForObject(replayServer.getUrl() + "/v2/info", Map.class);
+			assertEquals(replayServer.getUrl(), info.get("authorization_endpoint"));
+			long start = System.currentTimeMillis();
+			assertEquals(1, client.getForObject(replayServer.getUrl() + "/v2/organizations?page=1", Map.class).get("total_results"));
+			assertTrue(System.currentTimeMillis() - start >= LATENCY);
+			assertEquals(2, client.getForObject(replayServer.getUrl() + "/v2/organizations?page=1", Map.class).get("total_results"));
+			assertEquals(1, client.getForObject(replayServer.getUrl() + "/v2/organizations?page=1", Map.class).get("total_results"));
+			try {
+				client.getForObject(replayServer.getUrl() + "/v2/organizations?page=2", Map.class);
+				fail("An unrecorded request should not be served");
+			} catch (HttpClientErrorException e) {
+				assertEquals(404, e.getStatusCode().value());
+			}
+			assertEquals(1, replayServer.getMisses());
+		} finally {
+			replayServer.close();
+		}
+	}
+
+	@Test
+	public void dropsTheExchangeARecordingWasCutOffIn() throws Exception {
+		File file = new File(folder.getRoot(), "test.traffic");
+		TrafficRecorder recorder = new TrafficRecorder(file);
+		try {
+			RestTemplate restTemplate = new RestTemplate();
+			restTemplate.getInterceptors().add(recorder);
+			restTemplate.getForObject(foundationUrl + "/v2/info", Map.class);
+			long firstRecordEnd = file.length();
+			restTemplate.getForObject(foundationUrl + "/v2/organizations", Map.class);
+			long secondRecordEnd = file.length();
+			assertTrue(secondRecordEnd - firstRecordEnd > 1);
+
+			// not closed, as if the process had been killed, and cut off halfway through writing the second record
+			File cutOff = new File(folder.getRoot(), "cut-off.traffic");
+			Files.copy(file.toPath(), cutOff.toPath());
+			RandomAccessFile cutOffFile = new RandomAccessFile(cutOff, "rw");
+			try {
+				cutOffFile.setLength(firstRecordEnd + (secondRecordEnd - firstRecordEnd) / 2);
+			} finally {
+				cutOffFile.close();
+			}
+
+			assertEquals(2, TrafficRecorder.read(file).size());
+			List<RecordedExchange> exchanges = TrafficRecorder.read(cutOff);
+			assertEquals(1, exchanges.size());
+			assertEquals("/v2/info", exchanges.get(0).getPath());
+		} finally {
+			recorder.close();
+		}
+	}
+
+}
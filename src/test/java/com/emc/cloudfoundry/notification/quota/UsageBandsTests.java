@@ -0,0 +1,28 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class UsageBandsTests {
+
+	private final UsageBands bands = new UsageBands(80, 10, 5);
+
+	@Test
+	public void bandsStartAtTheThreshold() {
+		assertEquals(0, bands.band(79));
+		assertEquals(1, bands.band(80));
+		assertEquals(1, bands.band(89));
+		assertEquals(2, bands.band(90));
+		assertEquals(3, bands.band(104));
+	}
+
+	@Test
+	public void recoveryNeedsTheHysteresisMargin() {
+		assertEquals(2, bands.recoveredBand(86));
+		assertEquals(1, bands.recoveredBand(84));
+		assertEquals(1, bands.recoveredBand(75));
+		assertEquals(0, bands.recoveredBand(74));
+	}
+
+}
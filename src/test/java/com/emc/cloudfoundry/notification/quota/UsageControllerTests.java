@@ -0,0 +1,76 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.hamcrest.Matchers.containsString;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.content;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.header;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+import java.util.Arrays;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.SpringApplicationConfiguration;
+import org.springframework.test.context.TestPropertySource;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.web.WebAppConfiguration;
+import org.springframework.test.web.servlet.MockMvc;
+import org.springframework.test.web.servlet.setup.MockMvcBuilders;
+import org.springframework.web.context.WebApplicationContext;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@SpringApplicationConfiguration(classes = Application.class)
+@WebAppConfiguration
+@TestPropertySource(properties = "initialDelay=3600000")
+public class UsageControllerTests {
+
+	@Autowired
+	private WebApplicationContext context;
+
+	@Autowired
+	private UsageSnapshots usageSnapshots;
+
+	private MockMvc mvc;
+
+	private String eTag;
+
+	@Before
+	public void publish() {
+		UsageSnapshot snapshot = usageSnapshots.publish("east", Arrays.asList(org(75)));
+		eTag = snapshot.getETag();
+		mvc = MockMvcBuilders.webAppContextSetup(context).build();
+	}
+
+	@Test
+	public void servesOrgUsageFromTheSnapshot() throws Exception {
+		mvc.perform(get("/usage/orgs/org-guid"))
+				.andExpect(status().isOk())
+				.andExpect(header().string("ETag", eTag))
+				.andExpect(content().string(containsString("\"percentUsed\":75")))
+				.andExpect(content().string(containsString("\"name\":\"development\"")));
+		mvc.perform(get("/usage/orgs/unknown")).andExpect(status().isNotFound());
+	}
+
+	@Test
+	public void notModifiedWhileTheUsageIsUnchanged() throws Exception {
+		mvc.perform(get("/usage").header("If-None-Match", eTag)).andExpect(status().isNotModified());
+		usageSnapshots.publish("east", Arrays.asList(org(75)));
+		mvc.perform(get("/usage").header("If-None-Match", eTag)).andExpect(status().isNotModified());
+		usageSnapshots.publish("east", Arrays.asList(org(80)));
+		mvc.perform(get("/usage").header("If-None-Match", eTag)).andExpect(status().isOk());
+	}
+
+	@Test
+	public void unknownOrgsAreNotFoundWhateverTheETag() throws Exception {
+		mvc.perform(get("/usage/orgs/unknown").header("If-None-Match", eTag)).andExpect(status().isNotFound());
+		mvc.perform(get("/usage/orgs/unknown/spaces").header("If-None-Match", "*")).andExpect(status().isNotFound());
+	}
+
+	private static OrgUsage org(int percentUsed) {
+		SpaceUsage space = new SpaceUsage("development", 512, 25, 2, 4);
+		return new OrgUsage("east", "org-guid", "ExampleOrg", 1536, 2048, percentUsed, Arrays.asList(space));
+	}
+
+}
@@ -0,0 +1,111 @@
+package com.emc.cloudfoundry.notification.quota;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.springframework.mock.env.MockEnvironment;
+import org.springframework.test.util.ReflectionTestUtils;
+
+public class UsageSnapshotStoreTests {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private File file;
+
+	private UsageSnapshot snapshot;
+
+	private Map<String, OrgOwners.Entry> owners;
+
+	@Before
+	public void setUp() {
+		file = new File(folder.getRoot(), "usage.snapshot");
+		OrgUsage org = new OrgUsage("east", "org-guid", "org", 900, 1000, 90,
+				Arrays.asList(new SpaceUsage("dev", 900, 90, 3, 6)));
+		snapshot = UsageSnapshot.EMPTY.next("east", Arrays.asList(org)).next("west", Arrays.<OrgUsage> asList());
+		owners = Collections.singletonMap("org-guid", new OrgOwners.Entry(1234,
+				Arrays.asList(new OrgOwner("user-guid", "manager@example.com", "Jane"), new OrgOwner("other", null, null))));
+	}
+
+	@Test
+	public void roundTrip() throws Exception {
+		UsageSnapshotStore.write(file, snapshot, owners);
+		UsageSnapshotStore.Restored restored = UsageSnapshotStore.read(file);
+
+		assertEquals(2, restored.snapshot.getGeneration());
+		assertEquals(snapshot.getETag(), restored.snapshot.getETag());
+		assertEquals(snapshot.getCreated(), restored.snapshot.getCreated());
+		OrgUsage org = restored.snapshot.getOrg("org-guid");
+		assertEquals("east", org.getFoundation());
+		assertEquals(90, org.getPercentUsed());
+		assertEquals(6, org.getSpaces().get(0).getInstances());
+		OrgOwners.Entry entry = restored.owners.get("org-guid");
+		assertEquals(1234, entry.getLookedUp());
+		assertEquals("manager@example.com", entry.getOwners().get(0).getEmail());
+		assertNull(entry.getOwners().get(1).getEmail());
+	}
+
+	@Test
+	public void theSameGenerationOfOtherUsageGetsAnotherETag() {
+		OrgUsage org = new OrgUsage("east", "org-guid", "org", 950, 1000, 95,
+				Arrays.asList(new SpaceUsage("dev", 950, 95, 3, 6)));
+		UsageSnapshot other = UsageSnapshot.restore(snapshot.getGeneration(), snapshot.getCreated(), Arrays.asList(org));
+
+		assertNotEquals(snapshot.getETag(), other.getETag());
+	}
+
+	@Test
+	public void savesWhenOnlyTheOwnersChanged() throws Exception {
+		UsageSnapshotStore store = new UsageSnapshotStore(file, true);
+		OrgOwners orgOwners = new OrgOwners(Long.MAX_VALUE / 2);
+		ReflectionTestUtils.setField(store, "usageSnapshots", new UsageSnapshots());
+		ReflectionTestUtils.setField(store, "orgOwners", orgOwners);
+		store.save();
+		assertTrue(file.delete());
+
+		store.save();
+		assertFalse(file.exists());
+		orgOwners.put("org-guid", Arrays.asList(new OrgOwner("user-guid", "manager@example.com", "Jane")));
+		store.save();
+		assertEquals("manager@example.com",
+				UsageSnapshotStore.read(file).owners.get("org-guid").getOwners().get(0).getEmail());
+	}
+
+	@Test
+	public void doesNotSaveToTheContainerDiskOnCloud() throws Exception {
+		MockEnvironment environment = new MockEnvironment();
+		assertTrue(new UsageSnapshotStore(environment).isEnabled());
+		environment.setProperty("VCAP_APPLICATION", "{}");
+		assertFalse(new UsageSnapshotStore(environment).isEnabled());
+		environment.setProperty("snapshot.file", "/home/vcap/app/usage.snapshot");
+		assertFalse(new UsageSnapshotStore(environment).isEnabled());
+		// a volume service mount
+		environment.setProperty("snapshot.file", "/var/vcap/data/volume/usage.snapshot");
+		assertTrue(new UsageSnapshotStore(environment).isEnabled());
+	}
+
+	@Test
+	public void ignoresADamagedFile() throws Exception {
+		UsageSnapshotStore.write(file, snapshot, owners);
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(30);
+		raf.write(raf.read() ^ 0xff);
+		raf.close();
+
+		assertNull(UsageSnapshotStore.read(file));
+	}
+
+}